@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -8,6 +9,13 @@ import java.util.*;
  *
  * Note that we only support aggregates over a single column, grouped by a
  * single column.
+ *
+ * The group table is held to a memory budget. Once it has as many groups
+ * as fit, tuples of new groups are hash-partitioned on the group-by field
+ * into FANOUT SpillFiles, and each partition is aggregated by an Aggregate
+ * of its own after the groups in memory are returned and dropped, so only
+ * the groups of one level are held at a time. A partition whose groups do
+ * not fit either is partitioned again with another hash.
  */
 public
 class Aggregate extends Operator
@@ -15,6 +23,29 @@ class Aggregate extends Operator
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * default memory budget of the group table in bytes, from
+     * simpledb.Aggregate.memoryBudget if set
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Long.getLong("simpledb.Aggregate.memoryBudget", 64L << 20);
+
+    /**
+     * bytes a group is taken to need besides its group-by field: the hash
+     * table entry, the field object and its AggregateState
+     */
+    static final int GROUP_OVERHEAD = 128;
+
+    /**
+     * number of partitions spilled tuples are split into
+     */
+    static final int FANOUT = 16;
+
+    /**
+     * partitions this deep are aggregated in memory whatever their size, so
+     * groups whose fields hash alike cannot partition forever
+     */
+    static final int MAX_LEVEL = 4;
+
     // private field
     private DbIterator child;
     private int gfield;
@@ -24,6 +55,12 @@ class Aggregate extends Operator
     private boolean groupby = false;
     private DbIterator iterator;
     private TupleDesc td;
+    private Type gtype;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int level = 0; // times the input has been partitioned
+    private SpillFile[] partitions; // tuples of groups that did not fit, null if none
+    private int partition; // next partition to aggregate
+    private Aggregate partitionAgg; // aggregate of the current partition
 
     /**
      * Constructor.
@@ -46,7 +83,7 @@ class Aggregate extends Operator
         this.afield = afield;
         this.gfield = gfield;
         this.op = aop;
-        Type gtype = null;
+        this.gtype = null;
         Type atype = child.getTupleDesc().getFieldType(afield);
         // 1. no grouping
         if (gfield != Aggregator.NO_GROUPING)
@@ -65,18 +102,57 @@ class Aggregate extends Operator
             td = new TupleDesc(nogroupby_typeAr, nogroupby_nameAr);
         }
 
-        /**
-         * create aggregator matches type of afield
-         */
+        this.agg = newAggregator();
+    }
+
+    /**
+     * Constructor of the aggregate of a partition of spilled tuples
+     */
+    private
+    Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, long memoryBudget, int level)
+    {
+        this(child, afield, gfield, aop);
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+    }
+
+    /**
+     * create aggregator matches type of afield
+     */
+    private
+    Aggregator newAggregator()
+    {
+        Type atype = child.getTupleDesc().getFieldType(afield);
         if (atype == Type.INT_TYPE)
-            this.agg = new IntegerAggregator(gfield, gtype, afield, op);
+            return new IntegerAggregator(gfield, gtype, afield, op);
         else
         {
 //            System.out.format("aggregate type: STRING\n");
-            this.agg = new IntegerAggregator(gfield, gtype, afield, op);
+            return new IntegerAggregator(gfield, gtype, afield, op);
         }
     }
 
+    /**
+     * Set the memory budget of the group table, takes effect at the next
+     * open()
+     *
+     * @param bytes the budget in bytes
+     */
+    public
+    void setMemoryBudget(long bytes)
+    {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * @return the memory budget of the group table in bytes
+     */
+    public
+    long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      * field index in the <b>INPUT</b> tuples. If not, return
@@ -148,19 +224,71 @@ class Aggregate extends Operator
 //        System.out.format("aggregate open ...\n");
         super.open();
         child.open();
+        build();
+    }
+
+    /**
+     * aggregate the open child: the groups that fit into agg, the tuples of
+     * the others into partitions
+     */
+    private
+    void build() throws DbException, TransactionAbortedException
+    {
+        this.agg = newAggregator();
+        this.partitions = null;
+        long groupSize = GROUP_OVERHEAD + (groupby ? gtype.getLen() : 0);
+        long maxGroups = level < MAX_LEVEL ? Math.max(1, memoryBudget / groupSize) : Long.MAX_VALUE;
+
         try
         {
             while (child.hasNext())
             {
-                this.agg.mergeTupleIntoGroup(child.next());
+                Tuple t = child.next();
+                if (agg.numGroups() < maxGroups || agg.hasGroup(t))
+                { this.agg.mergeTupleIntoGroup(t); }
+                else
+                { spill(t); }
             }
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            e.printStackTrace();
+            deletePartitions();
+            throw new DbException("can't spill aggregate input: " + e);
         }
         this.iterator = agg.iterator();
         iterator.open();
+        this.partition = 0;
+        this.partitionAgg = null;
+    }
+
+    /**
+     * add t to the partition of its group
+     */
+    private
+    void spill(Tuple t) throws IOException
+    {
+        if (partitions == null)
+        { partitions = new SpillFile[FANOUT]; }
+
+        int p = SpillFile.partition(t.getField(gfield), level, FANOUT);
+
+        if (partitions[p] == null)
+        { partitions[p] = new SpillFile(child.getTupleDesc()); }
+        partitions[p].add(t);
+    }
+
+    private
+    void deletePartitions()
+    {
+        if (partitions != null)
+        {
+            for (SpillFile f : partitions)
+            {
+                if (f != null)
+                { f.delete(); }
+            }
+            partitions = null;
+        }
     }
 
     /**
@@ -178,17 +306,65 @@ class Aggregate extends Operator
     Tuple fetchNext() throws TransactionAbortedException, DbException
     {
         // some code goes here
-        Tuple next_tuple = null;
-        if (iterator.hasNext())
-            next_tuple = iterator.next();
-        return next_tuple;
+        if (iterator != null)
+        {
+            if (iterator.hasNext())
+                return iterator.next();
+            if (partitions == null)
+                return null;
+
+            // the groups in memory are done with, leave the budget to the partitions
+            iterator.close();
+            iterator = null;
+            agg = null;
+        }
+
+        // then the groups of each spilled partition
+        while (partitions != null)
+        {
+            if (partitionAgg != null)
+            {
+                if (partitionAgg.hasNext())
+                { return partitionAgg.next(); }
+                partitionAgg.close();
+                partitionAgg = null;
+            }
+            while (partition < FANOUT && partitions[partition] == null)
+            { partition++; }
+            if (partition == FANOUT)
+            { break; }
+            try
+            {
+                partitionAgg = new Aggregate(partitions[partition++].iterator(), afield, gfield, op,
+                                             memoryBudget, level + 1);
+            }
+            catch (IOException e)
+            { throw new DbException("can't read spilled aggregate input: " + e); }
+            partitionAgg.open();
+        }
+        return null;
     }
 
     public
     void rewind() throws DbException, TransactionAbortedException
     {
         // some code goes here
-        iterator.rewind();
+        if (partitionAgg != null)
+        {
+            partitionAgg.close();
+            partitionAgg = null;
+        }
+        partition = 0;
+        if (iterator != null)
+        {
+            iterator.rewind();
+            return;
+        }
+
+        // the groups in memory were dropped, aggregate the input again
+        deletePartitions();
+        child.rewind();
+        build();
     }
 
     /**
@@ -219,21 +395,18 @@ class Aggregate extends Operator
         // some code goes here
         super.close();
         child.close();
-        iterator.close();
-    }
-
-    public
-    boolean hasNext() throws DbException, TransactionAbortedException
-    {
-        return iterator.hasNext();
-    }
-
-    public
-    Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException
-    {
-        Tuple next_tuple = iterator.next();
-//        System.out.format("next tuple: %s\n", next_tuple);
-        return next_tuple;
+        if (iterator != null)
+        {
+            iterator.close();
+            iterator = null;
+        }
+        agg = null;
+        if (partitionAgg != null)
+        {
+            partitionAgg.close();
+            partitionAgg = null;
+        }
+        deletePartitions();
     }
 
     @Override
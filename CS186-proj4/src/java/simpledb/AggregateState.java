@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * The running state of one group of an aggregate: count, sum, min and max
+ * of the values merged so far. The aggregators keep one per group instead
+ * of the group's tuples, so their memory is O(#groups) instead of
+ * O(#rows).
+ */
+class AggregateState
+{
+    long count = 0;
+    long sum   = 0;
+    int  min   = Integer.MAX_VALUE;
+    int  max   = Integer.MIN_VALUE;
+
+    /**
+     * merge a value into the group
+     */
+    void add(int value)
+    {
+        count++;
+        sum += value;
+        if (value < min)
+        { min = value; }
+        if (value > max)
+        { max = value; }
+    }
+
+    /**
+     * merge a row into the group without a value, all COUNT needs
+     */
+    void addRow()
+    {
+        count++;
+    }
+
+    /**
+     * @return the aggregate of the group, 0 if nothing was merged and op
+     * needs a value
+     */
+    int result(Aggregator.Op op)
+    {
+        if (op == Aggregator.Op.COUNT)
+        { return (int) count; }
+        if (count == 0)
+        { return 0; }
+        switch (op)
+        {
+            case MIN:
+                return min;
+            case MAX:
+                return max;
+            case SUM:
+                return (int) sum;
+            case AVG:
+                return (int) (sum / count);
+        }
+        throw new IllegalStateException("impossible to reach here");
+    }
+}
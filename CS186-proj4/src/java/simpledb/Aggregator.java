@@ -67,6 +67,18 @@ interface Aggregator extends Serializable
     public
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * @return the number of groups merged so far
+     */
+    public
+    int numGroups();
+
+    /**
+     * @return true if the group of tup has been merged already
+     */
+    public
+    boolean hasGroup(Tuple tup);
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -4,9 +4,12 @@ package simpledb;
 import java.io.*;
 import java.security.Permission;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.HashMap;
 
 /**
@@ -17,6 +20,19 @@ import java.util.HashMap;
  * The BufferPool is also responsible for locking;
  * when a transaction fetches a page, BufferPool checks that the
  * transaction has the appropriate locks to read/write the page.
+ * <p>
+ * The pool is split into shards by PageId hash. Each Shard has its own
+ * concurrent page table, replacement policy and eviction lock, so threads
+ * working on different pages rarely meet. Pages are evicted within their
+ * shard, which starts with numPages / shards page slots. A shard whose
+ * pages all have to stay, e.g. dirty pages of a running transaction under
+ * NO-STEAL, borrows a slot of another shard, so a transaction only runs
+ * out of room once the whole pool is full.
+ * <p>
+ * The num of shards is the shards argument of the constructor. Otherwise
+ * it is read from the system property simpledb.BufferPool.shards, and by
+ * default it is the num of processors, as long as every shard gets at
+ * least MIN_SHARD_PAGES pages.
  */
 public
 class BufferPool
@@ -33,13 +49,25 @@ class BufferPool
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private int                                     numPages;
-    private HashMap<PageId, Page>                   pages; // hashmap for <pageid, page> in pool
-    private ArrayList<Page>                         lruList;
-    // lru list to keep page sorted, the last one if the least recent used
-    private HashMap<TransactionId, Boolean>         commited_tid;
-    private HashMap<TransactionId, HashSet<PageId>> touched_page_by_tid;
-    private LockManager                             lm;
+    /**
+     * Smallest shard the default shard count allows, so small pools (and
+     * the tests using them) keep a single shard and exact eviction order.
+     */
+    public static final int MIN_SHARD_PAGES = 64;
+
+    /**
+     * hits queued for the policy before a thread drains them
+     */
+    private static final int ACCESS_DRAIN_THRESHOLD = 64;
+
+    private int                                           numPages;
+    private Shard[]                                       shards; // pages partitioned by PageId hash
+    private volatile boolean                              evictionFailed; // last load found no victim in the pool
+    private volatile boolean                              stealNoForce; // log-backed eviction and commit
+    private ConcurrentHashMap<TransactionId, Boolean>     commited_tid;
+    private ConcurrentHashMap<TransactionId, Set<PageId>> touched_page_by_tid;
+    private LockManager                                   lm;
+    private PageWriter                                    writer; // writes dirty pages back, sorted and coalesced
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -48,55 +76,187 @@ class BufferPool
      */
     public
     BufferPool(int numPages)
+    {
+        this(numPages, new LRUReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * num of shards.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards num of shards, at most numPages
+     */
+    public
+    BufferPool(int numPages, int numShards)
+    {
+        this(numPages, new LRUReplacementPolicy(), numShards);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   replacement policy, e.g. LRUReplacementPolicy, ClockReplacementPolicy
+     *                 or the scan-resistant TwoQueueReplacementPolicy
+     */
+    public
+    BufferPool(int numPages, ReplacementPolicy policy)
+    {
+        this(numPages, policy, defaultShards(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * num of shards, each evicting with its own instance of policy.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param policy    replacement policy, used as is by a single shard
+     * @param numShards num of shards, at most numPages
+     */
+    public
+    BufferPool(int numPages, ReplacementPolicy policy, int numShards)
     {
         // some code goes here
         this.numPages = numPages;
-        pages = new HashMap<PageId, Page>(numPages);
-        lruList = new ArrayList<Page>();
-        commited_tid = new HashMap<TransactionId, Boolean>();
-        touched_page_by_tid = new HashMap<TransactionId, HashSet<PageId>>();
-        lm = new LockManager(200);
+        numShards = Math.max(1, Math.min(numShards, numPages));
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++)
+        {
+            // spread the remainder over the first shards
+            int capacity = numPages / numShards + (i < numPages % numShards ? 1 : 0);
+            shards[i] = new Shard(capacity, numShards == 1 ? policy : policy.newInstance(capacity));
+        }
+        commited_tid = new ConcurrentHashMap<TransactionId, Boolean>();
+        touched_page_by_tid = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        lm = new LockManager(DeadlockVictimPolicy.YOUNGEST);
+        writer = new PageWriter(this);
+        stealNoForce = Boolean.getBoolean("simpledb.BufferPool.stealNoForce");
+    }
+
+    /**
+     * Turn STEAL/NO-FORCE on or off, off by default unless the system
+     * property simpledb.BufferPool.stealNoForce is true.
+     * <p>
+     * It applies to transactions that write to the LogFile, i.e. were
+     * started with Transaction.start(). Their dirty pages may be evicted
+     * before they commit, once the update is in the log (STEAL), and commit
+     * only logs their pages, the commit record forces the log (NO-FORCE).
+     * Other transactions keep NO-STEAL/FORCE.
+     */
+    public
+    void setStealNoForce(boolean stealNoForce)
+    {
+        this.stealNoForce = stealNoForce;
+    }
+
+    /**
+     * @return true if STEAL/NO-FORCE is on
+     */
+    public
+    boolean isStealNoForce()
+    {
+        return stealNoForce;
+    }
+
+    /**
+     * @return true if tid gets STEAL/NO-FORCE
+     */
+    private
+    boolean isLogged(TransactionId tid)
+    {
+        return stealNoForce && tid != null && Database.getLogFile().isActive(tid);
+    }
+
+    /**
+     * @return simpledb.BufferPool.shards if set, else the num of processors,
+     * but no more than gives every shard MIN_SHARD_PAGES pages
+     */
+    private static
+    int defaultShards(int numPages)
+    {
+        String property = System.getProperty("simpledb.BufferPool.shards");
+        if (property != null)
+        { return Integer.parseInt(property); }
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(processors, numPages / MIN_SHARD_PAGES));
+    }
+
+    /**
+     * @return the shard that holds pid
+     */
+    private
+    Shard shardFor(PageId pid)
+    {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * @return num of shards the pool is split into
+     */
+    public
+    int getNumShards()
+    {
+        return shards.length;
     }
 
     /**
      * lockManager class
      * <p>
      * This class implements a strict two phase locking:
-     * 1. if a read lock is held by t1, and t2 asks for a write lock, t2 will be blocked.
-     * 2. all acquired locks by a transaction will be released at once in the end of transaction.
-     * 3. if a write lock is held by t1, and t2 asks for a read lock, t2 will be blocked.
-     * 3. if a read lock is held by t1, and t2 asks for a read lock, t2 will succeed.
+     * 1. a page is locked shared by any num of readers, or exclusive by one writer.
+     * 2. a reader that is the only reader of a page can upgrade to a write lock.
+     * 3. all acquired locks by a transaction will be released at once in the end of transaction.
+     * <p>
+     * Each page in use has its own LockEntry: its holders, a FIFO queue of
+     * blocked requests and its own monitor to wait on. Entries live in a
+     * concurrent map and are dropped once nobody holds or waits for them, so
+     * transactions locking different pages never contend, and a release only
+     * wakes the waiters of that page. An entry with an empty queue grants
+     * compatible requests right away; otherwise requests queue up and are
+     * granted from the head, except an upgrade, which goes first.
      * <p>
-     * Lock manager uses timeout to detect deadlock and throw exception, which requires use of wait and synchronized
+     * Deadlocks are found with a wait-for graph instead of a timeout. A queued
+     * request has edges to the holders of conflicting locks and to the
+     * requests ahead of it; an entry republishes the edges of its queue each
+     * time it changes. The graph has its own monitor (waiting), always taken
+     * after an entry's and never before, and is only touched by entries that
+     * have a queue. Each time a request blocks or wakes up, the graph is
+     * searched for a cycle through the requester, and one transaction of the
+     * cycle, chosen by the DeadlockVictimPolicy, is aborted right away.
+     * Waiters that are not in a cycle wait as long as it takes.
      */
     public
     class LockManager
     {
-        // read lock
-        private HashMap<PageId, Integer>                read_lock_count;
-        // count num of read locks for a page id
-        private HashMap<PageId, HashSet<TransactionId>> read_lock_pageid_heldby_tid;
-        // assign tid with same read lock to a page id
+        private ConcurrentHashMap<PageId, LockEntry>          entries; // lock state of each page in use
+        private ConcurrentHashMap<TransactionId, Set<PageId>> held; // pages locked by a tid
 
-        // write lock
-        private HashMap<PageId, TransactionId> write_lock_pageid_heldby_tid;
-        private HashMap<PageId, ReentrantLock> write_lock_pid_lock;
+        // wait-for graph, guarded by waiting
+        private HashMap<TransactionId, LockRequest> waiting; // blocked tid -> lock it waits for
+        private HashSet<TransactionId>              victims; // tids chosen to abort, not woken up yet
 
-        private final int timeout;
+        private DeadlockVictimPolicy victimPolicy;
+        private long                 deadlocks; // num of cycles found
+        private long                 detectNanos; // total time from block to victim chosen, for cycles found
+        private long                 maxDetectNanos;
 
         /**
          * constructor
          */
         public
-        LockManager(int timeout)
+        LockManager(DeadlockVictimPolicy victimPolicy)
         {
-            read_lock_count = new HashMap<PageId, Integer>();
-            read_lock_pageid_heldby_tid = new HashMap<PageId, HashSet<TransactionId>>();
+            entries = new ConcurrentHashMap<PageId, LockEntry>();
+            held = new ConcurrentHashMap<TransactionId, Set<PageId>>();
 
-            write_lock_pageid_heldby_tid = new HashMap<PageId, TransactionId>();
-            write_lock_pid_lock = new HashMap<PageId, ReentrantLock>();
+            waiting = new HashMap<TransactionId, LockRequest>();
+            victims = new HashSet<TransactionId>();
 
-            this.timeout = timeout;
+            this.victimPolicy = victimPolicy;
         }
 
         /**
@@ -104,145 +264,316 @@ class BufferPool
          *
          * @param tid
          * @param pid
+         * @throws TransactionAbortedException if tid is chosen to break a deadlock
          */
-        public synchronized
+        public
         void acquireWriteLock(TransactionId tid, PageId pid) throws TransactionAbortedException
         {
-//            System.out.format("acquireWriteLock ...\n");
-            if (read_lock_count.containsKey(pid))
+            acquire(new LockRequest(tid, pid, true));
+        }
+
+        /**
+         * acquire read lock
+         *
+         * @param tid
+         * @param pid
+         * @throws TransactionAbortedException if tid is chosen to break a deadlock
+         */
+        public
+        void acquireReadLock(TransactionId tid, PageId pid) throws TransactionAbortedException
+        {
+            acquire(new LockRequest(tid, pid, false));
+        }
+
+        /**
+         * acquire read lock if it can be granted without waiting
+         *
+         * @param tid
+         * @param pid
+         * @return true if tid holds the lock now
+         */
+        public
+        boolean tryAcquireReadLock(TransactionId tid, PageId pid)
+        {
+            LockEntry entry = entries.get(pid);
+            if (entry == null)
             {
-                System.out.format("tid %s, read_lock_count has pid %s\n", tid, pid);
+                LockEntry created = new LockEntry(pid);
+                entry = entries.putIfAbsent(pid, created);
+                if (entry == null)
+                { entry = created; }
             }
-            if (write_lock_pageid_heldby_tid.containsKey(pid))
-            {
-                System.out.format(
-                        "tid %s, write_lock_pageid_heldby_tid has pid %s, tid  %s\n", tid, pid,
-                        write_lock_pageid_heldby_tid.get(pid)
-                                 );
 
+            synchronized (entry)
+            {
+                LockRequest req = new LockRequest(tid, pid, false);
+                if (entry.dropped || !entry.queue.isEmpty() || !entry.compatible(req))
+                { return false; }
+                grant(entry, req);
+                return true;
             }
-            if (read_lock_count.containsKey(pid) &&
-                (
-                        write_lock_pageid_heldby_tid.containsKey(pid) &&
-                        write_lock_pageid_heldby_tid.get(pid) != tid
-                ))
+        }
+
+        /**
+         * grant req at once if the page is free enough, queue it otherwise
+         */
+        private
+        void acquire(LockRequest req) throws TransactionAbortedException
+        {
+            while (true)
             {
-                // promote read lock to write lock if tid is the only one that reads a pid
-                while (read_lock_count.get(pid) > 1 || (
-                        read_lock_count.get(pid) == 1 &&
-                        !read_lock_pageid_heldby_tid.get(pid).contains(tid)
-                ))
+                LockEntry entry = entries.get(req.pid);
+                if (entry == null)
                 {
-                    long startTime = System.currentTimeMillis();
-                    try
-                    {
-                        wait(timeout); // wait until while condition becomes false, synchronized is needed
-                    }
-                    catch (Exception e)
+                    LockEntry created = new LockEntry(req.pid);
+                    entry = entries.putIfAbsent(req.pid, created);
+                    if (entry == null)
+                    { entry = created; }
+                }
+
+                synchronized (entry)
+                {
+                    // dropped while we looked it up, get the one that replaced it
+                    if (entry.dropped)
+                    { continue; }
+                    if (entry.holds(req.tid, req.exclusive))
+                    { return; }
+
+                    boolean upgrade = req.exclusive && entry.readers.contains(req.tid);
+                    if ((upgrade || entry.queue.isEmpty()) && entry.compatible(req))
                     {
-                        System.out.println(e);
+                        grant(entry, req);
+                        return;
                     }
 
-                    if (System.currentTimeMillis() - startTime >= timeout)
+                    req.entry = entry;
+                    if (upgrade)
+                    { entry.queue.addFirst(req); }
+                    else
+                    { entry.queue.addLast(req); }
+                    publish(entry);
+                }
+                await(req);
+                return;
+            }
+        }
+
+        /**
+         * Block until req reaches the head of its queue and can be granted, or
+         * until its tid is chosen as a victim. A victim waiting on another
+         * page is woken up after leaving this entry's monitor, so at most one
+         * entry monitor is held at a time.
+         */
+        private
+        void await(LockRequest req) throws TransactionAbortedException
+        {
+            LockEntry entry     = req.entry;
+            long      blockedAt = System.nanoTime();
+            boolean   granted   = false;
+            try
+            {
+                while (true)
+                {
+                    LockRequest victim;
+                    synchronized (entry)
                     {
+                        while (true)
+                        {
+                            if (isVictim(req.tid))
+                            { throw new TransactionAbortedException(); }
 
-                        throw new TransactionAbortedException(); // throw exception if deadlock
+                            if (entry.queue.peekFirst() == req && entry.compatible(req))
+                            {
+                                entry.queue.removeFirst();
+                                grant(entry, req);
+                                granted = true;
+                                changed(entry);
+                                return;
+                            }
+
+                            victim = breakDeadlock(req, blockedAt);
+                            if (victim == req)
+                            { throw new TransactionAbortedException(); }
+                            if (victim != null && victim.entry != null && victim.entry != entry)
+                            { break; }
+                            if (victim != null)
+                            { entry.notifyAll(); }
+
+                            entry.wait();
+                        }
                     }
+                    synchronized (victim.entry)
+                    { victim.entry.notifyAll(); }
                 }
             }
+            catch (InterruptedException e)
+            {
+                throw new TransactionAbortedException();
+            }
+            finally
+            {
+                // also runs when the thread is stopped while waiting
+                if (!granted)
+                {
+                    synchronized (entry)
+                    {
+                        entry.queue.remove(req);
+                        synchronized (waiting)
+                        { waiting.remove(req.tid, req); }
+                        changed(entry);
+                    }
+                }
+            }
+        }
 
-            if (!write_lock_pid_lock.containsKey(pid))
-            { write_lock_pid_lock.put(pid, new ReentrantLock()); }
+        /**
+         * caller holds entry's monitor
+         */
+        private
+        void grant(LockEntry entry, LockRequest req)
+        {
+            if (req.exclusive)
+            { entry.writer = req.tid; }
+            else if (!entry.isWriter(req.tid))
+            { entry.readers.add(req.tid); }
 
-            long startTime = System.currentTimeMillis();
-            System.out.format("tid %s, waiting for write-lock pid %s, startTime %d\n", tid, pid, startTime);
-            try
+            Set<PageId> pids = held.get(req.tid);
+            if (pids == null)
             {
-                // lock when no one holds the lock, or try with timeout
+                pids = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+                Set<PageId> raced = held.putIfAbsent(req.tid, pids);
+                if (raced != null)
+                { pids = raced; }
+            }
+            pids.add(req.pid);
+        }
 
-                if (write_lock_pid_lock.get(pid).tryLock() || write_lock_pid_lock.get(pid).tryLock(timeout, TimeUnit.MILLISECONDS))
-                {
-                    System.out.format("tid %s, get write lock at %s\n", tid, System.currentTimeMillis());
-                }
+        /**
+         * Called after the holders or the queue of entry changed, with its
+         * monitor held: wake up its waiters, or drop it if it is unused.
+         */
+        private
+        void changed(LockEntry entry)
+        {
+            if (!entry.queue.isEmpty())
+            {
+                publish(entry);
+                entry.notifyAll();
             }
-            catch (Exception e)
+            else if (entry.writer == null && entry.readers.isEmpty())
             {
-                System.out.println("Except: acquireWriteLock " + e);
+                entry.dropped = true;
+                entries.remove(entry.pid, entry);
             }
+        }
 
-            if (System.currentTimeMillis() - startTime >= timeout)
+        /**
+         * set the edges of the wait-for graph for every request queued on
+         * entry, whose monitor the caller holds
+         */
+        private
+        void publish(LockEntry entry)
+        {
+            synchronized (waiting)
             {
-                System.out.format(
-                        "Except: tid %s, waiting for write-lock pid %s, endTime %d\n", tid, pid,
-                        System.currentTimeMillis()
-                                 );
-                throw new TransactionAbortedException(); // throw exception if deadlock
+                HashSet<TransactionId> ahead = new HashSet<TransactionId>();
+                for (LockRequest req : entry.queue)
+                {
+                    HashSet<TransactionId> blockers = new HashSet<TransactionId>(ahead);
+                    if (entry.writer != null)
+                    { blockers.add(entry.writer); }
+                    if (req.exclusive)
+                    { blockers.addAll(entry.readers); }
+                    blockers.remove(req.tid);
+
+                    req.blockers = blockers;
+                    waiting.put(req.tid, req);
+                    ahead.add(req.tid);
+                }
             }
+        }
 
-            if (!write_lock_pageid_heldby_tid.containsKey(pid))
-            { write_lock_pageid_heldby_tid.put(pid, tid); }
-            else
-            { write_lock_pageid_heldby_tid.put(pid, tid); }
+        /**
+         * @return true, once, if tid was chosen to abort
+         */
+        private
+        boolean isVictim(TransactionId tid)
+        {
+            synchronized (waiting)
+            {
+                return victims.remove(tid);
+            }
         }
 
         /**
-         * release write lock
+         * Look for a cycle through req, which is blocked. If there is one,
+         * choose a victim.
          *
-         * @param tid
-         * @param pid
+         * @return the request the victim waits on, req itself if its tid has
+         * to abort, or null if there is no cycle
          */
-        public synchronized
-        void releaseWriteLock(TransactionId tid, PageId pid)
+        private
+        LockRequest breakDeadlock(LockRequest req, long blockedAt)
         {
-            System.out.format("tid %s, releaseWriteLock on pid %s\n", tid, pid);
-            write_lock_pid_lock.get(pid).unlock();
-            write_lock_pageid_heldby_tid.remove(pid);
+            synchronized (waiting)
+            {
+                ArrayList<TransactionId> cycle = new ArrayList<TransactionId>();
+                if (!findCycle(req.tid, req.tid, cycle, new HashSet<TransactionId>()))
+                { return null; }
+
+                TransactionId victim = victimPolicy.choose(cycle, held);
+                long          nanos  = System.nanoTime() - blockedAt;
+                deadlocks++;
+                detectNanos += nanos;
+                maxDetectNanos = Math.max(maxDetectNanos, nanos);
+                System.out.format("tid %s, deadlock %s, abort tid %s\n", req.tid, cycle, victim);
+
+                if (victim.equals(req.tid))
+                { return req; }
+                victims.add(victim);
+                return waiting.get(victim);
+            }
         }
 
         /**
-         * acquire read lock
+         * depth first search of the wait-for graph for a path from node back
+         * to start, skipping victims that are about to abort
          *
-         * @param tid
-         * @param pid
+         * @param path the path so far, holds the cycle if one is found
+         * @return true if a cycle was found
          */
-        public synchronized
-        void acquireReadLock(TransactionId tid, PageId pid) throws TransactionAbortedException
+        private
+        boolean findCycle(TransactionId node, TransactionId start, List<TransactionId> path, Set<TransactionId> visited)
         {
-//            System.out.format("acquireReadLock ...\n");
-            if (write_lock_pid_lock.containsKey(pid))
+            path.add(node);
+            visited.add(node);
+            LockRequest req = waiting.get(node);
+            if (req != null)
             {
-                while (write_lock_pid_lock.get(pid).isLocked() && write_lock_pageid_heldby_tid.get(pid) != tid)
+                for (TransactionId next : req.blockers)
                 {
-                    long startTime = System.currentTimeMillis();
-                    System.out.format("tid %s, waiting for read-lock %s, startTime %d\n", tid, pid, startTime);
-                    try
-                    {
-                        wait(timeout);
-                    }
-                    catch (Exception e)
-                    {
-                        System.out.println(e);
-                    }
-
-                    if (System.currentTimeMillis() - startTime >= timeout)
-                    {
-                        System.out.format(
-                                "Except: tid %s, waiting to read-lock %s, endTime %d\n", tid, pid,
-                                System.currentTimeMillis()
-                                         );
-                        throw new TransactionAbortedException();
-                    }
+                    if (victims.contains(next))
+                    { continue; }
+                    if (next.equals(start))
+                    { return true; }
+                    if (!visited.contains(next) && findCycle(next, start, path, visited))
+                    { return true; }
                 }
             }
+            path.remove(path.size() - 1);
+            return false;
+        }
 
-            if (!read_lock_count.containsKey(pid))
-            { read_lock_count.put(pid, 1); }
-            else
-            { read_lock_count.put(pid, read_lock_count.get(pid) + 1); }
-
-            if (!read_lock_pageid_heldby_tid.containsKey(pid))
-            { read_lock_pageid_heldby_tid.put(pid, new HashSet<TransactionId>()); }
-            read_lock_pageid_heldby_tid.get(pid).add(tid);
+        /**
+         * release write lock
+         *
+         * @param tid
+         * @param pid
+         */
+        public
+        void releaseWriteLock(TransactionId tid, PageId pid)
+        {
+            release(tid, pid, true, false);
         }
 
         /**
@@ -251,17 +582,10 @@ class BufferPool
          * @param tid
          * @param pid
          */
-        public synchronized
+        public
         void releaseReadLock(TransactionId tid, PageId pid)
         {
-//            System.out.format("releaseReadLock ...\n");
-            if (!read_lock_count.containsKey(pid))
-            { return; }
-
-            if (read_lock_count.get(pid) >= 1)
-            { read_lock_count.put(pid, read_lock_count.get(pid) - 1); }
-
-            read_lock_pageid_heldby_tid.get(pid).remove(tid);
+            release(tid, pid, false, true);
         }
 
         /**
@@ -270,12 +594,37 @@ class BufferPool
          * @param tid
          * @param pid
          */
-        public synchronized
+        public
         void releaseLockOnAPage(TransactionId tid, PageId pid)
         {
-//            System.out.format("releaseLockOnAPage ...\n");
-            releaseWriteLock(tid, pid);
-            releaseReadLock(tid, pid);
+            release(tid, pid, true, true);
+        }
+
+        private
+        void release(TransactionId tid, PageId pid, boolean write, boolean read)
+        {
+            LockEntry entry = entries.get(pid);
+            if (entry == null)
+            { return; }
+            synchronized (entry)
+            {
+                boolean released = false;
+                if (write && entry.isWriter(tid))
+                {
+                    entry.writer = null;
+                    released = true;
+                }
+                if (read)
+                { released |= entry.readers.remove(tid); }
+                if (!released)
+                { return; }
+
+                // drop pid from the pages held by tid once tid has no lock left on it
+                Set<PageId> pids = held.get(tid);
+                if (!entry.holds(tid, false) && pids != null)
+                { pids.remove(pid); }
+                changed(entry);
+            }
         }
 
         /**
@@ -283,67 +632,145 @@ class BufferPool
          *
          * @param tid
          */
-        public synchronized
+        public
         void releaseAllLocks(TransactionId tid)
         {
-            System.out.format("tid %s, releaseAllLocks\n", tid);
-            // release write locks
-            Iterator<Map.Entry<PageId, TransactionId>> iter = write_lock_pageid_heldby_tid.entrySet().iterator(); // use iterator to remove keys while iterating
-            while (iter.hasNext())
+            Set<PageId> pids = held.remove(tid);
+            if (pids != null)
             {
-                Map.Entry<PageId, TransactionId> entry = iter.next();
-                if (entry.getValue() == tid)
+                for (PageId pid : pids)
                 {
-                    write_lock_pid_lock.get(entry.getKey()).unlock();
-                    write_lock_pid_lock.remove(entry.getKey()); // has to remove Reentrantlock here, since the lock was created by another obj, and so even after unlock, it still won't be able to hold by another obj in a different thread
-                    iter.remove();
+                    LockEntry entry = entries.get(pid);
+                    if (entry == null)
+                    { continue; }
+                    synchronized (entry)
+                    {
+                        if (entry.isWriter(tid))
+                        { entry.writer = null; }
+                        entry.readers.remove(tid);
+                        changed(entry);
+                    }
                 }
             }
+            synchronized (waiting)
+            { victims.remove(tid); }
+        }
 
-            // release read locks
-            for (PageId pid : read_lock_pageid_heldby_tid.keySet())
+        /**
+         * return true if a tid has write or read lock on a page
+         *
+         * @param tid
+         * @param pid
+         * @return
+         */
+        public
+        boolean isLockHeld(TransactionId tid, PageId pid)
+        {
+            LockEntry entry = entries.get(pid);
+            if (entry == null)
+            { return false; }
+            synchronized (entry)
             {
-                if (read_lock_pageid_heldby_tid.get(pid).contains(tid))
-                {
-                    if (read_lock_count.get(pid) >= 1)
-                    { read_lock_count.put(pid, read_lock_count.get(pid) - 1); }
-                    read_lock_pageid_heldby_tid.get(pid).remove(tid);
-                }
+                return entry.holds(tid, false);
             }
+        }
 
-            System.out.format(
-                    "tid %s, write_lock_pageid_heldby_tid size %d\n", tid, write_lock_pageid_heldby_tid.size());
-            for (PageId pid : write_lock_pageid_heldby_tid.keySet())
+        public
+        void setVictimPolicy(DeadlockVictimPolicy victimPolicy)
+        {
+            synchronized (waiting)
             {
-                System.out.format("tid %s, left pid: %s, tid %s\n", tid, pid, write_lock_pageid_heldby_tid.get(pid));
+                this.victimPolicy = victimPolicy;
             }
+        }
 
-            for (PageId pid : read_lock_pageid_heldby_tid.keySet())
+        public
+        long getDeadlockCount()
+        {
+            synchronized (waiting)
             {
-                System.out.format(
-                        "tid %s, read_lock_count size %d\n", tid, read_lock_count.get(pid));
-                System.out.format(
-                        "tid %s, read_lock_pageid_heldby_tid size %d\n", tid,
-                        read_lock_pageid_heldby_tid.get(pid).size()
-                                 );
+                return deadlocks;
             }
         }
 
+        public
+        long getDetectNanos()
+        {
+            synchronized (waiting)
+            {
+                return detectNanos;
+            }
+        }
+
+        public
+        long getMaxDetectNanos()
+        {
+            synchronized (waiting)
+            {
+                return maxDetectNanos;
+            }
+        }
+    }
+
+    /**
+     * holders and waiters of the lock on one page, guarded by its own monitor
+     */
+    private static
+    class LockEntry
+    {
+        final PageId                  pid;
+        final HashSet<TransactionId>  readers = new HashSet<TransactionId>();
+        TransactionId                 writer;
+        final LinkedList<LockRequest> queue   = new LinkedList<LockRequest>(); // blocked requests, FIFO
+        boolean                       dropped; // removed from the lock table, look it up again
+
+        LockEntry(PageId pid)
+        {
+            this.pid = pid;
+        }
+
+        boolean isWriter(TransactionId tid)
+        {
+            return writer != null && writer.equals(tid);
+        }
+
         /**
-         * return true if a tid has write or read lock on a page
-         *
-         * @param tid
-         * @param pid
-         * @return
+         * @return true if tid holds the lock, or a write lock if exclusive
          */
-        public synchronized
-        boolean isLockHeld(TransactionId tid, PageId pid)
+        boolean holds(TransactionId tid, boolean exclusive)
         {
-            if (write_lock_pageid_heldby_tid.get(pid) == tid || read_lock_pageid_heldby_tid.get(pid).contains(tid))
-            { return true; }
-            return false;
+            return isWriter(tid) || (!exclusive && readers.contains(tid));
+        }
+
+        /**
+         * @return true if req conflicts with no lock of another tid
+         */
+        boolean compatible(LockRequest req)
+        {
+            if (writer != null && !writer.equals(req.tid))
+            { return false; }
+            return !req.exclusive || readers.isEmpty() || (readers.size() == 1 && readers.contains(req.tid));
         }
+    }
+
+    /**
+     * a lock a transaction asks for, queued on entry while it is blocked
+     */
+    private static
+    class LockRequest
+    {
+        final TransactionId    tid;
+        final PageId           pid;
+        final boolean          exclusive;
+        LockEntry              entry;
+        HashSet<TransactionId> blockers; // edges of the wait-for graph, guarded by LockManager.waiting
 
+        LockRequest(TransactionId tid, PageId pid, boolean exclusive)
+        {
+            this.tid = tid;
+            this.pid = pid;
+            this.exclusive = exclusive;
+        }
     }
 
     /**
@@ -368,15 +795,16 @@ class BufferPool
     throws TransactionAbortedException, DbException
     {
         // some code goes here
-        System.out.format("tid %s, BP getPage, pid %s, perm %s\n", tid, pid, perm);
+//        System.out.format("tid %s, BP getPage, pid %s, perm %s\n", tid, pid, perm);
 //        System.out.format("TransactionId: %s, PageId %s, Permissions %s\n", tid, pid, perm);
         try
         {
-            if (perm == Permissions.READ_WRITE)
+            // reads outside of a transaction (e.g. TableStats) take no locks
+            if (tid != null && perm == Permissions.READ_WRITE)
             {
                 lm.acquireWriteLock(tid, pid);
             }
-            else if (perm == Permissions.READ_ONLY)
+            else if (tid != null && perm == Permissions.READ_ONLY)
             {
                 lm.acquireReadLock(tid, pid);
             }
@@ -392,53 +820,117 @@ class BufferPool
             throw new DbException("other exception");
         }
 
-//        synchronized (this)
-//        {
-        System.out.format("tid %s, BP gooooootPage, pid %s, perm %s\n", tid, pid, perm);
-        Page pageFound = pages.get(pid);
-        if (pageFound == null)
-        {
-            // evict a page from pool if full
-            if (isFull())
-            { evictPage(); }
+//        System.out.format("tid %s, BP gooooootPage, pid %s, perm %s\n", tid, pid, perm);
+        Page pageFound = shardFor(pid).fetch(pid);
+        touch(tid, pid);
 
-            try
-            {
-                //                System.out.format("BufferPool finding page %d table id: %d\n", pid.pageNumber()
-                // , pid.getTableId());
-                pageFound = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, pageFound);
-                lruList.add(0, pageFound);
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-            }
+        return pageFound;
+    }
+
+    /**
+     * remember that tid used page pid, so it is flushed or rolled back when
+     * tid completes; called by many transactions at once
+     */
+    private
+    void touch(TransactionId tid, PageId pid)
+    {
+        if (tid == null)
+        { return; }
+        Set<PageId> touched = touched_page_by_tid.get(tid);
+        if (touched == null)
+        {
+            touched = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> raced = touched_page_by_tid.putIfAbsent(tid, touched);
+            if (raced != null)
+            { touched = raced; }
         }
+        touched.add(pid);
+    }
 
-        // if page found
-        // move found page to the head of lru list
-        lruList.remove(pageFound);
-        lruList.add(0, pageFound);
+    /**
+     * @return num of getPage() calls served without reading from disk
+     */
+    public
+    long getHitCount()
+    {
+        long hits = 0;
+        for (Shard shard : shards)
+        { hits += shard.hits.get(); }
+        return hits;
+    }
+
+    /**
+     * @return num of getPage() calls that had to read the page from disk
+     */
+    public
+    long getMissCount()
+    {
+        long misses = 0;
+        for (Shard shard : shards)
+        { misses += shard.misses.get(); }
+        return misses;
+    }
+
+    /**
+     * Choose which transaction of a deadlock is aborted, YOUNGEST by default.
+     */
+    public
+    void setDeadlockVictimPolicy(DeadlockVictimPolicy victimPolicy)
+    {
+        lm.setVictimPolicy(victimPolicy);
+    }
+
+    /**
+     * @return num of deadlocks found and broken by aborting a victim
+     */
+    public
+    long getDeadlockCount()
+    {
+        return lm.getDeadlockCount();
+    }
 
+    /**
+     * @return mean time in ns from the request that closed a deadlock
+     * blocking to the victim being chosen, 0 if there was no deadlock
+     */
+    public
+    long getMeanDeadlockDetectionNanos()
+    {
+        long count = lm.getDeadlockCount();
+        return count == 0 ? 0 : lm.getDetectNanos() / count;
+    }
 
-        if (!touched_page_by_tid.containsKey(tid))
-        { touched_page_by_tid.put(tid, new HashSet<PageId>()); }
-        touched_page_by_tid.get(tid).add(pid);
+    /**
+     * @return longest time in ns taken to detect a deadlock
+     */
+    public
+    long getMaxDeadlockDetectionNanos()
+    {
+        return lm.getMaxDetectNanos();
+    }
 
-        return pageFound;
-//        }
+    /**
+     * @param pid
+     * @return true if the page is resident in the pool
+     */
+    public
+    boolean containsPage(PageId pid)
+    {
+        return shardFor(pid).pages.containsKey(pid);
     }
 
     /**
-     * return true if pool is full
+     * The pool is under pressure when it is small compared to the pages a
+     * read-ahead wants to stage, or when the last eviction found every page
+     * dirty. Read-ahead backs off then.
      *
+     * @param readAheadPages num of pages a read-ahead would stage
      * @return
      */
-    private
-    boolean isFull()
+    public
+    boolean underPressure(int readAheadPages)
     {
-        return lruList.size() == numPages;
+        return numPages < 4 * readAheadPages || evictionFailed;
     }
 
     /**
@@ -473,15 +965,19 @@ class BufferPool
     }
 
     /**
-     * FORCE: force all pages to disk once transaction is complete
+     * FORCE: force all pages to disk once transaction is complete, unless
+     * tid gets STEAL/NO-FORCE (see setStealNoForce)
      * <p>
      * Commit or abort a given transaction; release all locks associated
      * to the transaction.
      * <p>
-     * 1. if commit is true, then flush dirty pages to disk.
+     * 1. if commit is true, then flush dirty pages to disk, or to the log
+     * for NO-FORCE.
      * 2. if commit is false, then abort, and revert changes made by
      * tid, by restoring page to its on-disk state via reading pages
-     * from disk.
+     * from disk. With STEAL/NO-FORCE on, pages tid stole are restored from
+     * the log, and the others from their before image, since the disk may
+     * miss committed changes.
      * <p>
      * Assume system does not crash during transactionComplete(),
      * therefore no recovery is needed. FORCE and NO-STEAL ensures
@@ -496,7 +992,7 @@ class BufferPool
     {
         // some code goes here
         // not necessary for proj1
-        System.out.format("tid %s, transactionComplete ...\n", tid);
+//        System.out.format("tid %s, transactionComplete ...\n", tid);
         commited_tid.put(tid, commit);
 
         // 1) tid has commited, write all dirty pages to disk
@@ -505,41 +1001,67 @@ class BufferPool
 //            System.out.format("commit tid: %s\n", tid);
             flushPages(tid);
         }
-        // 2 )tid has not commited (aborted),
-        // replace dirty pages with clean pages from disk
+        // 2) tid has not commited (aborted) under STEAL/NO-FORCE:
+        // write back the before images of the pages it dirtied
+        else if (stealNoForce)
+        {
+            // not rolled back by Transaction yet, undo the stolen pages
+            if (Database.getLogFile().isActive(tid))
+            { Database.getLogFile().rollback(tid); }
+            abortPages(tid);
+        }
+        // 3) tid has not commited (aborted),
+        // replace dirty pages with clean pages from disk: drop them, the
+        // next getPage() reads them again
         else
         {
-            if (touched_page_by_tid.containsKey(tid))
+            Set<PageId> touched = touched_page_by_tid.remove(tid);
+            if (touched != null)
             {
-                for (PageId pid : touched_page_by_tid.get(tid))
-                {
-                    discardPage(pid);
-                    try
-                    {
-                        pages.put(pid, pages.get(pid).getBeforeImage());
-                    }
-                    catch (Exception e)
-                    {
-                        System.out.println(e);
-                    }
-                }
+                for (PageId pid : touched)
+                { discardPage(pid); }
             }
         }
         lm.releaseAllLocks(tid);
     }
 
+    /**
+     * Restore the resident pages tid dirtied to their before image, on disk,
+     * and drop them from the pool. The pages it stole are not resident any
+     * more once LogFile.rollback() has restored them.
+     */
+    private
+    void abortPages(TransactionId tid) throws IOException
+    {
+        Set<PageId> touched = touched_page_by_tid.remove(tid);
+        if (touched == null)
+        { return; }
+
+        ArrayList<Page> before = new ArrayList<Page>();
+        for (PageId pid : touched)
+        {
+            Frame frame = shardFor(pid).pages.get(pid);
+            Page  page  = frame == null ? null : frame.page;
+            if (page != null && page.isDirty() != null && page.isDirty().equals(tid))
+            { before.add(page.getBeforeImage()); }
+        }
+        writer.write(before);
+        for (Page page : before)
+        { discardPage(page.getId()); }
+    }
+
     /**
      * Remove the specific page id from the buffer pool.
      * Needed by the recovery manager to ensure that the
      * buffer pool doesn't keep a rolled back page in its
      * cache.
      */
-    public synchronized
+    public
     void discardPage(PageId pid)
     {
         // some code goes here
         // not necessary for proj1
-        pages.remove(pid);
+        shardFor(pid).discard(pid);
     }
 
     /**
@@ -587,9 +1109,7 @@ class BufferPool
         HeapPage page = (HeapPage) getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.markDirty(true, tid);
 
-        if (!touched_page_by_tid.containsKey(tid))
-        { touched_page_by_tid.put(tid, new HashSet<PageId>()); }
-        touched_page_by_tid.get(tid).add(page.getId());
+        touch(tid, page.getId());
 //        System.out.format("tid: %s, pid in hashmap: %s\n", tid, touched_page_by_tid.get(tid));
     }
 
@@ -616,30 +1136,62 @@ class BufferPool
     {
         // some code goes here
         // not necessary for proj1
-        HeapPage page = (HeapPage) getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
+        Page     page  = table.deleteTuple(tid, t);
         page.markDirty(true, tid);
 
-        if (!touched_page_by_tid.containsKey(tid))
-        { touched_page_by_tid.put(tid, new HashSet<PageId>()); }
-        touched_page_by_tid.get(tid).add(page.getId());
+        touch(tid, page.getId());
     }
 
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk
-     * so will break simpledb if running in NO STEAL mode.
+     * so will break simpledb if running in NO STEAL mode. Pages of logged
+     * transactions are logged first, so they can still be rolled back.
      */
-    public synchronized
+    public
     void flushAllPages() throws IOException
     {
         // some code goes here
         // not necessary for proj1
-        for (Page page : lruList)
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Shard shard : shards)
+        {
+            for (Frame frame : shard.pages.values())
+            {
+                Page page = frame.page;
+                if (page != null && page.isDirty() != null)
+                { dirty.add(page); }
+            }
+        }
+        logUncommitted(dirty);
+        writer.write(dirty);
+        for (Page page : dirty)
+        { page.markDirty(false, null); }
+    }
+
+    /**
+     * Write-ahead rule: before pages dirtied by running transactions are
+     * written over their committed version, log their updates and force
+     * the log. Pages of transactions that did not start in the log are
+     * written as they are.
+     */
+    private
+    void logUncommitted(Collection<Page> pages) throws IOException
+    {
+        LogFile log    = Database.getLogFile();
+        boolean logged = false;
+        for (Page page : pages)
         {
-            if (page.isDirty() != null)
-            { flushPage(page.getId()); }
+            TransactionId tid = page.isDirty();
+            if (tid != null && !isCommitted(tid) && log.isActive(tid))
+            {
+                log.logWrite(tid, page.getBeforeImage(), page);
+                logged = true;
+            }
         }
+        if (logged)
+        { log.force(); }
     }
 
     /**
@@ -647,19 +1199,27 @@ class BufferPool
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized
+    private
     void flushPage(PageId pid) throws IOException
+    {
+        Frame frame = shardFor(pid).pages.get(pid);
+        if (frame != null)
+        { flushPage(frame); }
+    }
+
+    private
+    void flushPage(Frame frame) throws IOException
     {
         // some code goes here
         // not necessary for proj1
 //        System.out.format("flushPage for pid ...\n");
-        DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
-        Page   page  = pages.get(pid);
+        Page page = frame.page;
         if (page == null)
         { return; }
         else
         {
-            table.writePage(page);
+            logUncommitted(Collections.singletonList(page));
+            writer.write(Collections.singletonList(page));
 //            System.out.format("write page: %s\n", page);
             page.markDirty(false, null);
         }
@@ -667,70 +1227,496 @@ class BufferPool
 
     /**
      * Write all pages of the specified transaction to disk.
+     * <p>
+     * Only the pages it dirtied are written, in one sorted pass shared with
+     * other transactions committing at the same time. Under NO-FORCE they
+     * are written to the log instead, and stay dirty in the pool; the
+     * commit record forces the log.
      */
-    public synchronized
+    public
     void flushPages(TransactionId tid) throws IOException
     {
         // some code goes here
         // not necessary for proj1
-        System.out.format("tid %s, flushPage\n", tid);
-        if (touched_page_by_tid.containsKey(tid))
+//        System.out.format("tid %s, flushPage\n", tid);
+        Set<PageId> touched = touched_page_by_tid.remove(tid);
+        if (touched == null)
+        { return; }
+
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (PageId pid : touched)
         {
-            for (PageId pid : touched_page_by_tid.get(tid))
+            Frame frame = shardFor(pid).pages.get(pid);
+            Page  page  = frame == null ? null : frame.page;
+            if (page != null && page.isDirty() != null)
+            { dirty.add(page); }
+        }
+
+        if (isLogged(tid))
+        {
+            LogFile log = Database.getLogFile();
+            for (Page page : dirty)
             {
-                flushPage(pid);
+                log.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
             }
-            touched_page_by_tid.remove(tid);
+            return;
+        }
+        // FORCE: the pages go over their committed version before the
+        // commit record is written, so their updates must be logged first
+        logUncommitted(dirty);
+        writer.flush(dirty);
+        for (Page page : dirty)
+        {
+            page.setBeforeImage();
+            page.markDirty(false, null);
         }
     }
 
     /**
-     * NO-STEAL: no evict dirty pages to disk.
-     * <p>
-     * Discards a page from the buffer pool.
-     * <p>
-     * Dirty pages are written to disk only after its transaction is commited.
-     * <p>
-     * A non-dirty pages gets written to disk immediately.
-     * <p>
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     * <p>
-     * Use LRU cache eviction policy.
+     * Write up to max pages that are dirty but whose transaction has
+     * committed, and mark them clean. Called by the background thread of
+     * the PageWriter. A page is only taken if a read lock on it can be had
+     * without waiting, so nobody changes it while it is written.
+     *
+     * @return num of pages written
+     */
+    int cleanCommittedPages(int max) throws IOException
+    {
+        TransactionId   cleaner = new TransactionId();
+        ArrayList<Page> batch   = new ArrayList<Page>();
+        try
+        {
+            for (Shard shard : shards)
+            {
+                for (Frame frame : shard.pages.values())
+                {
+                    Page page = frame.page;
+                    if (batch.size() == max)
+                    { break; }
+                    if (page == null || !isCommitted(page.isDirty()))
+                    { continue; }
+                    if (!lm.tryAcquireReadLock(cleaner, page.getId()))
+                    { continue; }
+                    // dirtied again before we got the lock
+                    if (isCommitted(page.isDirty()))
+                    { batch.add(page); }
+                }
+            }
+            writer.write(batch);
+            for (Page page : batch)
+            { page.markDirty(false, null); }
+            return batch.size();
+        }
+        finally
+        {
+            lm.releaseAllLocks(cleaner);
+        }
+    }
+
+    /**
+     * @return true if tid is a committed transaction
+     */
+    private
+    boolean isCommitted(TransactionId tid)
+    {
+        return tid != null && Boolean.TRUE.equals(commited_tid.get(tid));
+    }
+
+    /**
+     * Move a page slot from another shard to shard, none of whose pages can
+     * be evicted. The lender gives a free slot, or evicts one of its pages
+     * for it. Only one evictionLock is held at a time, so shards borrowing
+     * from each other cannot deadlock.
+     *
+     * @return false if no other shard can give a slot
+     */
+    private
+    boolean borrowSlot(Shard shard) throws DbException
+    {
+        for (Shard lender : shards)
+        {
+            if (lender == shard || !lender.lendSlot())
+            { continue; }
+            shard.evictionLock.lock();
+            try
+            {
+                shard.capacity++;
+            }
+            finally
+            {
+                shard.evictionLock.unlock();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the writer of dirty pages, to tune its rate or read its counters
+     */
+    public
+    PageWriter getPageWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * One partition of the pool: the pages whose PageId hashes to it, with
+     * their own page table, replacement policy and eviction lock.
      * <p>
-     * The LRU cache is a hash table of keys and double linked nodes.
-     * The hash table makes the time of get() to be O(1).
-     * The list of double linked nodes make the nodes adding/removal operations O(1).
+     * A hit pins the frame with a compare-and-set and queues the access for
+     * the policy, so it takes no lock. The first thread to miss on a page
+     * installs a loading frame and reads the page; other threads missing on
+     * it wait for that read. Eviction and the policy are guarded by
+     * evictionLock, and a frame is only evicted once its pin count is
+     * swapped from 0 to -1.
      */
-    private synchronized
-    void evictPage() throws DbException
+    private
+    class Shard
     {
-        // some code goes here
-        // not necessary for proj1
-        for (int i = lruList.size() - 1; i >= 0; i--)
-        {
-            Page          curr_page = lruList.get(i);
-            TransactionId tid       = curr_page.isDirty();
-            // evict 1) clean page; or 2) committed dirty pages to disk
-            if (tid == null || (tid != null &&
-                                commited_tid.containsKey(tid) &&
-                                commited_tid.get(tid) == true
-                ))
-            {
-                lruList.remove(i);
-                PageId pid = curr_page.getId();
+        int                                    capacity; // max num of pages in this shard, guarded by evictionLock
+        final ConcurrentHashMap<PageId, Frame> pages; // page table, <pageid, frame> in shard
+        final ReplacementPolicy                policy; // decides which page to evict, guarded by evictionLock
+        final ReentrantLock                    evictionLock;
+        final ConcurrentLinkedQueue<PageId>    accesses; // hits not reported to policy yet
+        final AtomicInteger                    pendingAccesses; // approximate size of accesses
+        final AtomicLong                       hits; // num of fetch() served from the shard
+        final AtomicLong                       misses; // num of fetch() read from disk
+
+        Shard(int capacity, ReplacementPolicy policy)
+        {
+            this.capacity = capacity;
+            this.policy = policy;
+            pages = new ConcurrentHashMap<PageId, Frame>(capacity);
+            evictionLock = new ReentrantLock();
+            accesses = new ConcurrentLinkedQueue<PageId>();
+            pendingAccesses = new AtomicInteger();
+            hits = new AtomicLong();
+            misses = new AtomicLong();
+        }
+
+        /**
+         * Look pid up in the page table, reading it from disk on a miss.
+         *
+         * @return the page, or null if it could not be read
+         */
+        Page fetch(PageId pid) throws DbException
+        {
+            while (true)
+            {
+                Frame frame = pages.get(pid);
+                if (frame == null)
+                {
+                    Frame loading = new Frame();
+                    loading.pins.set(1);
+                    frame = pages.putIfAbsent(pid, loading);
+                    if (frame == null)
+                    {
+                        misses.incrementAndGet();
+                        return load(pid, loading);
+                    }
+                }
+
+                // being evicted, it leaves the table soon
+                if (!frame.pin())
+                {
+                    Thread.yield();
+                    continue;
+                }
+                try
+                {
+                    Page page = frame.awaitLoaded();
+                    if (page == null)
+                    { continue; } // the read failed, try it ourselves
+                    hits.incrementAndGet();
+                    recordAccess(pid);
+                    return page;
+                }
+                finally
+                {
+                    frame.pins.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Make room for frame, which this thread installed and pinned for
+         * pid, and read the page into it. The disk read is done without
+         * evictionLock.
+         */
+        private
+        Page load(PageId pid, Frame frame) throws DbException
+        {
+            try
+            {
+                while (true)
+                {
+                    evictionLock.lock();
+                    try
+                    {
+                        drainAccesses();
+                        // frame is counted already
+                        while (pages.size() > capacity)
+                        {
+                            if (!evictPage())
+                            { break; }
+                        }
+                        if (pages.size() <= capacity)
+                        {
+                            policy.admit(pid);
+                            break;
+                        }
+                    }
+                    finally
+                    {
+                        evictionLock.unlock();
+                    }
+                    // every page of the shard has to stay, take a slot of another shard
+                    evictionFailed = !borrowSlot(this);
+                    if (evictionFailed)
+                    { throw new DbException("all " + numPages + " pages are dirty and are not commited\n"); }
+                }
+
                 try
                 {
-                    flushPage(pid);
+                    frame.page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
                 }
                 catch (Exception e)
                 {
-                    System.out.println(e);
+                    e.printStackTrace();
+                }
+                return frame.page;
+            }
+            finally
+            {
+                if (frame.page == null)
+                {
+                    evictionLock.lock();
+                    try
+                    {
+                        pages.remove(pid, frame);
+                        policy.remove(pid);
+                    }
+                    finally
+                    {
+                        evictionLock.unlock();
+                    }
+                }
+                frame.loaded.countDown();
+                frame.pins.decrementAndGet();
+            }
+        }
+
+        /**
+         * queue a hit for the policy, and hand the queue to the policy once
+         * it is long enough, unless another thread holds evictionLock
+         */
+        private
+        void recordAccess(PageId pid)
+        {
+            accesses.add(pid);
+            if (pendingAccesses.incrementAndGet() >= ACCESS_DRAIN_THRESHOLD && evictionLock.tryLock())
+            {
+                try
+                {
+                    drainAccesses();
+                }
+                finally
+                {
+                    evictionLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * report queued hits to the policy in order, caller holds
+         * evictionLock
+         */
+        private
+        void drainAccesses()
+        {
+            PageId pid;
+            while ((pid = accesses.poll()) != null)
+            {
+                pendingAccesses.decrementAndGet();
+                policy.access(pid);
+            }
+        }
+
+        /**
+         * Give a page slot of the shard to another shard, evicting a page if
+         * the shard is full.
+         *
+         * @return false if the shard has no slot left or no page to evict
+         */
+        boolean lendSlot() throws DbException
+        {
+            evictionLock.lock();
+            try
+            {
+                if (capacity == 0)
+                { return false; }
+                drainAccesses();
+                while (pages.size() >= capacity)
+                {
+                    if (!evictPage())
+                    { return false; }
                 }
+                capacity--;
+                return true;
+            }
+            finally
+            {
+                evictionLock.unlock();
+            }
+        }
+
+        /**
+         * drop pid from the shard without writing it
+         */
+        void discard(PageId pid)
+        {
+            evictionLock.lock();
+            try
+            {
                 pages.remove(pid);
-                return;
+                policy.remove(pid);
+            }
+            finally
+            {
+                evictionLock.unlock();
+            }
+        }
+
+        /**
+         * NO-STEAL: no evict dirty pages to disk, unless their transaction
+         * gets STEAL and its update is logged first.
+         * <p>
+         * Discards a page from the buffer pool.
+         * <p>
+         * Dirty pages are written to disk only after its transaction is commited.
+         * <p>
+         * A non-dirty pages gets written to disk immediately.
+         * <p>
+         * Flushes the page to disk to ensure dirty pages are updated on disk.
+         * <p>
+         * The victim is chosen by the ReplacementPolicy, which only gets to pick
+         * pages that are clean or dirtied by a committed transaction, and that
+         * are not pinned. The caller holds evictionLock.
+         *
+         * @return false if no page of the shard can be evicted
+         * @throws DbException if the victim could not be written, it stays in
+         *                     the pool then
+         */
+        private
+        boolean evictPage() throws DbException
+        {
+            // some code goes here
+            // not necessary for proj1
+            while (true)
+            {
+                PageId pid = policy.evict(evictable);
+                if (pid == null)
+                { return false; }
+                evictionFailed = false;
+
+                Frame frame = pages.get(pid);
+                if (frame == null)
+                { return true; }
+                // pinned since the policy looked at it, keep it and pick again
+                if (!frame.pins.compareAndSet(0, -1))
+                {
+                    policy.restore(pid);
+                    continue;
+                }
+
+                try
+                {
+                    flushPage(frame);
+                }
+                catch (IOException e)
+                {
+                    // the page only leaves the pool once it is on disk
+                    frame.pins.set(0);
+                    policy.restore(pid);
+                    throw new DbException("can't write page " + pid + " to evict it: " + e);
+                }
+                pages.remove(pid, frame);
+                return true;
+            }
+        }
+
+        /**
+         * evict 1) clean page; or 2) committed dirty pages to disk; or 3)
+         * pages of transactions that get STEAL, unless the page is pinned
+         */
+        private final ReplacementPolicy.Evictable evictable = new ReplacementPolicy.Evictable()
+        {
+            public
+            boolean canEvict(PageId pid)
+            {
+                Frame frame = pages.get(pid);
+                if (frame == null)
+                { return true; }
+                Page page = frame.page;
+                if (page == null || frame.pins.get() != 0)
+                { return false; }
+                TransactionId tid = page.isDirty();
+                return tid == null || isCommitted(tid) || isLogged(tid);
+            }
+        };
+    }
+
+    /**
+     * A slot of the page table. pins counts threads using the frame; -1
+     * means it is being evicted and must be looked up again. page is null
+     * until the thread that installed the frame has read it.
+     */
+    private static
+    class Frame
+    {
+        final AtomicInteger  pins   = new AtomicInteger();
+        final CountDownLatch loaded = new CountDownLatch(1);
+        volatile Page        page;
+
+        /**
+         * @return false if the frame is being evicted
+         */
+        boolean pin()
+        {
+            while (true)
+            {
+                int n = pins.get();
+                if (n < 0)
+                { return false; }
+                if (pins.compareAndSet(n, n + 1))
+                { return true; }
+            }
+        }
+
+        /**
+         * @return the page once it is read, null if the read failed
+         */
+        Page awaitLoaded()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    loaded.await();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
             }
+            if (interrupted)
+            { Thread.currentThread().interrupt(); }
+            return page;
         }
-        throw new DbException("all " + lruList.size() + " pages are dirty and are not commited\n");
     }
 
 }
@@ -208,15 +208,34 @@ class Catalog
     void clear()
     {
         // some code goes here
+        close();
         tables.clear();
         table_names.clear();
         primary_keys.clear();
         N = 0;
     }
 
+    /**
+     * Close the files of all tables, e.g. when the database shuts down.
+     * A closed HeapFile reopens its file if it is used again.
+     */
+    public
+    void close()
+    {
+        for (DbFile table : tables)
+        {
+            if (table instanceof HeapFile)
+            { ((HeapFile) table).close(); }
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables
      * in the database.
+     * <p>
+     * Each line is of the format: name (field type [pk], ...) [mmap]
+     * where the optional "mmap" opens the table memory-mapped for fast
+     * read-only scans.
      *
      * @param catalogFile
      */
@@ -235,6 +254,7 @@ class Catalog
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String            fields     = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String            options    = line.substring(line.indexOf(")") + 1).trim();
                 String[]          els        = fields.split(",");
                 ArrayList<String> names      = new ArrayList<String>();
                 ArrayList<Type>   types      = new ArrayList<Type>();
@@ -270,7 +290,15 @@ class Catalog
                 Type[]    typeAr  = types.toArray(new Type[0]);
                 String[]  namesAr = names.toArray(new String[0]);
                 TupleDesc t       = new TupleDesc(typeAr, namesAr);
-                HeapFile  tabHf   = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                boolean   mmap    = false;
+                if (options.equals("mmap"))
+                { mmap = true; }
+                else if (options.length() > 0)
+                {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
+                HeapFile  tabHf   = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, mmap);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
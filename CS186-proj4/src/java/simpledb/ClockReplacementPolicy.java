@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * CLOCK (second-chance) replacement policy.
+ * <p>
+ * Pages sit in a circular array of frames, each with a reference bit.
+ * An access only sets the bit, which is cheaper than relinking a list.
+ * To evict, the clock hand sweeps the frames: a page whose bit is set gets
+ * a second chance (bit cleared), the first page with a cleared bit is the
+ * victim. The hand goes at most twice around the clock, so evict() returns
+ * null when every page is rejected by the filter.
+ */
+public
+class ClockReplacementPolicy implements ReplacementPolicy
+{
+    private static final int INIT_FRAMES = 16;
+
+    private PageId[]                 frames; // circular array of pages
+    private boolean[]                referenced; // reference bit of each frame
+    private HashMap<PageId, Integer> frameOf; // hashmap for <pageid, frame index>
+    private ArrayList<Integer>       freeFrames; // frames emptied by remove() or evict()
+    private int                      used; // num of frames handed out so far
+    private int                      hand; // clock hand
+
+    public
+    ClockReplacementPolicy()
+    {
+        this(INIT_FRAMES);
+    }
+
+    /**
+     * @param numFrames expected num of pages, usually the size of the buffer pool
+     */
+    public
+    ClockReplacementPolicy(int numFrames)
+    {
+        numFrames = Math.max(numFrames, 1);
+        frames = new PageId[numFrames];
+        referenced = new boolean[numFrames];
+        frameOf = new HashMap<PageId, Integer>(numFrames);
+        freeFrames = new ArrayList<Integer>();
+        used = 0;
+        hand = 0;
+    }
+
+    public synchronized
+    void admit(PageId pid)
+    {
+        Integer frame = frameOf.get(pid);
+        if (frame == null)
+        {
+            frame = allocFrame();
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        referenced[frame] = true;
+    }
+
+    public synchronized
+    void access(PageId pid)
+    {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+        { referenced[frame] = true; }
+    }
+
+    public synchronized
+    void remove(PageId pid)
+    {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null)
+        { freeFrame(frame); }
+    }
+
+    public synchronized
+    PageId evict(Evictable filter)
+    {
+        if (used == 0)
+        { return null; }
+
+        // 1st round may only clear reference bits, 2nd round must find a victim if any
+        for (int step = 0; step < 2 * used; step++)
+        {
+            int    frame = hand;
+            PageId pid   = frames[frame];
+            hand = (hand + 1) % used;
+
+            if (pid == null)
+            { continue; }
+            if (referenced[frame])
+            {
+                referenced[frame] = false; // second chance
+                continue;
+            }
+            if (filter.canEvict(pid))
+            {
+                frameOf.remove(pid);
+                freeFrame(frame);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the victim had its reference bit cleared, and gets it back cleared
+     */
+    public synchronized
+    void restore(PageId pid)
+    {
+        if (frameOf.containsKey(pid))
+        { return; }
+        int frame = allocFrame();
+        frames[frame] = pid;
+        frameOf.put(pid, frame);
+    }
+
+    public synchronized
+    int size()
+    {
+        return frameOf.size();
+    }
+
+    public
+    ReplacementPolicy newInstance(int numPages)
+    {
+        return new ClockReplacementPolicy(numPages);
+    }
+
+    /**
+     * reuse an empty frame, or take a new one and grow the arrays if needed
+     */
+    private
+    int allocFrame()
+    {
+        if (!freeFrames.isEmpty())
+        { return freeFrames.remove(freeFrames.size() - 1); }
+
+        if (used == frames.length)
+        {
+            PageId[]  newFrames     = new PageId[frames.length * 2];
+            boolean[] newReferenced = new boolean[frames.length * 2];
+            System.arraycopy(frames, 0, newFrames, 0, used);
+            System.arraycopy(referenced, 0, newReferenced, 0, used);
+            frames = newFrames;
+            referenced = newReferenced;
+        }
+        return used++;
+    }
+
+    private
+    void freeFrame(int frame)
+    {
+        frames[frame] = null;
+        referenced[frame] = false;
+        freeFrames.add(frame);
+    }
+}
@@ -77,11 +77,32 @@ class Database
         return _instance._bufferpool;
     }
 
+    /**
+     * Method used for testing -- create a new instance of the
+     * buffer pool with the given replacement policy and return it
+     */
+    public static
+    BufferPool resetBufferPool(int pages, ReplacementPolicy policy)
+    {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static
     void reset()
     {
+        _instance._catalog.close();
         _instance = new Database();
     }
 
+    /**
+     * Shut down the database: close the files of all tables
+     */
+    public static
+    void shutdown()
+    {
+        _instance._catalog.close();
+    }
+
 }
@@ -21,7 +21,7 @@ interface DbFile extends Serializable
      * @throws IllegalArgumentException if the page does not exist in this file.
      */
     public
-    Page readPage(PageId id) throws IOException;
+    Page readPage(PageId id);
 
     /**
      * Push the specified page to disk.
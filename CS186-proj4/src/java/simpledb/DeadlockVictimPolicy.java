@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the transaction to abort when BufferPool.LockManager finds a cycle
+ * in its wait-for graph.
+ *
+ * @see BufferPool#setDeadlockVictimPolicy
+ */
+public
+enum DeadlockVictimPolicy
+{
+    /**
+     * abort the transaction that started last, it has likely done the
+     * least work
+     */
+    YOUNGEST()
+            {
+                @Override
+                public
+                TransactionId choose(List<TransactionId> cycle, Map<TransactionId, ? extends Collection<PageId>> held)
+                {
+                    TransactionId victim = cycle.get(0);
+                    for (TransactionId tid : cycle)
+                    {
+                        if (tid.getId() > victim.getId())
+                        { victim = tid; }
+                    }
+                    return victim;
+                }
+            },
+
+    /**
+     * abort the transaction holding the fewest locks, ties go to the youngest
+     */
+    FEWEST_LOCKS()
+            {
+                @Override
+                public
+                TransactionId choose(List<TransactionId> cycle, Map<TransactionId, ? extends Collection<PageId>> held)
+                {
+                    TransactionId victim = null;
+                    int           fewest = Integer.MAX_VALUE;
+                    for (TransactionId tid : cycle)
+                    {
+                        int n = held.containsKey(tid) ? held.get(tid).size() : 0;
+                        if (n < fewest || (n == fewest && tid.getId() > victim.getId()))
+                        {
+                            victim = tid;
+                            fewest = n;
+                        }
+                    }
+                    return victim;
+                }
+            },
+
+    /**
+     * abort the transaction whose request closed the cycle
+     */
+    REQUESTER()
+            {
+                @Override
+                public
+                TransactionId choose(List<TransactionId> cycle, Map<TransactionId, ? extends Collection<PageId>> held)
+                {
+                    return cycle.get(0);
+                }
+            };
+
+    /**
+     * @param cycle the transactions of the cycle, starting with the one
+     *              whose request closed it
+     * @param held  pages locked by each transaction
+     * @return the transaction of cycle to abort
+     */
+    public abstract
+    TransactionId choose(List<TransactionId> cycle, Map<TransactionId, ? extends Collection<PageId>> held);
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -17,6 +18,14 @@ interface Field extends Serializable
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the same bytes as serialize(DataOutputStream) at the current
+     * position of buf, advancing it by getType().getLen() bytes.
+     *
+     * @param buf The buffer to write to.
+     */
+    void serialize(ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
@@ -49,6 +49,11 @@ class Filter extends Operator
     {
         // some code goes here
         super.open();
+        // a scan tests the predicate on the page bytes, decoding only the tuples that pass
+        if (child instanceof SeqScan)
+        {
+            ((SeqScan) child).setPredicate(p);
+        }
         child.open();
     }
 
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of one HeapFile have an empty slot, so
+ * HeapFile.insertTuple() can go straight to such a page instead of locking
+ * every page from the start of the file.
+ * <p>
+ * The map is kept in memory only. It is built the first time it is used,
+ * by reading just the header of each page on disk (no BufferPool, no locks),
+ * and inserts, deletes and new pages keep it up to date after that.
+ * <p>
+ * It is a hint: a page found here is checked again under its lock, and a
+ * page that turns out to be full is dropped from the map. Space freed by an
+ * aborted insert is only noticed when a tuple is deleted from that page,
+ * which costs some unused space but never a wrong answer.
+ */
+public
+class FreeSpaceMap
+{
+    private final    HeapFile file;
+    private volatile BitSet   hasSpace; // page no -> page has an empty slot, null until built
+
+    public
+    FreeSpaceMap(HeapFile file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @param from page no to start from
+     * @return the 1st page no >= from that has an empty slot, or -1 if
+     * there is none
+     */
+    public synchronized
+    int nextPageWithSpace(int from)
+    {
+        return build().nextSetBit(from);
+    }
+
+    /**
+     * Record whether page pageNo has an empty slot.
+     */
+    public synchronized
+    void setHasSpace(int pageNo, boolean value)
+    {
+        build().set(pageNo, value);
+    }
+
+    /**
+     * Forget the map, it is built again from disk on next use.
+     * Not synchronized, so HeapFile.close() can call it while holding the
+     * file's monitor, which build() takes to read headers.
+     */
+    public
+    void clear()
+    {
+        hasSpace = null;
+    }
+
+    /**
+     * read the header of every page of the file and mark pages that
+     * have an unused slot, unless the map is built already
+     *
+     * @return the map
+     */
+    private
+    BitSet build()
+    {
+        BitSet map = hasSpace;
+        if (map != null)
+        { return map; }
+
+        int        numSlots = (BufferPool.PAGE_SIZE * 8) / (file.getTupleDesc().getSize() * 8 + 1);
+        ByteBuffer header   = ByteBuffer.allocate((numSlots + 7) / 8);
+        int        numPages = file.numPages();
+
+        map = new BitSet(numPages);
+        try
+        {
+            for (int pageNo = 0; pageNo < numPages; pageNo++)
+            {
+                header.clear();
+                file.readPageHeader(pageNo, header);
+                for (int i = 0; i < numSlots; i++)
+                {
+                    if ((header.get(i / 8) & (1 << (i % 8))) == 0)
+                    {
+                        map.set(pageNo);
+                        break;
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // without the headers, every page may have space
+            map.set(0, numPages);
+        }
+        hasSpace = map;
+        return map;
+    }
+}
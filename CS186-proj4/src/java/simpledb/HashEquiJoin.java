@@ -4,6 +4,9 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ *
+ * This is a hybrid hash join, see HybridHashJoin, with hash tables over
+ * child1 held to a memory budget.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,8 +14,8 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private long memoryBudget = Join.DEFAULT_MEMORY_BUDGET;
+    transient private HybridHashJoin hashJoin = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -32,6 +35,21 @@ public class HashEquiJoin extends Operator {
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Set the memory budget of the hash tables, past which the inputs are
+     * partitioned to disk. Takes effect on open().
+     * 
+     * @param bytes
+     *            the budget in bytes
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -50,52 +68,37 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
-            }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
-
-    }
-
-
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        super.open();
         child1.open();
         child2.open();
-        loadMap();
+        openHashJoin();
+    }
+
+    private void openHashJoin() throws DbException, TransactionAbortedException {
+        if (hashJoin != null)
+            hashJoin.close();
+        hashJoin = new HybridHashJoin(child1, pred.getField1(), child2, pred.getField2(), comboTD, memoryBudget);
+        hashJoin.open();
     }
 
     public void close() {
         super.close();
+        if (hashJoin != null) {
+            hashJoin.close();
+            hashJoin = null;
+        }
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        openHashJoin();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -114,50 +117,8 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
+        return hashJoin.next();
     }
 
     @Override
@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -16,6 +18,22 @@ import java.util.*;
  * described in the HeapPage constructor.
  * <p>
  * HeapFile reads pages from disk.
+ * <p>
+ * Each HeapFile keeps one FileChannel open for its whole life, and reads and
+ * writes pages with positional read(ByteBuffer, position) /
+ * write(ByteBuffer, position). These calls do not move a shared file pointer,
+ * so they are safe for concurrent use. The channel is closed by close(),
+ * which Catalog calls when the table is dropped or the database shuts down.
+ * <p>
+ * A read-mostly table can be opened memory-mapped ("mmap" in catalog.txt).
+ * The file is then mapped read-only in segments of MAP_SEGMENT_PAGES pages,
+ * and readPage() decodes the HeapPage straight from a slice of the mapping,
+ * with no read syscall and no byte[] copy. Pages that BufferPool has written
+ * back, and pages past the mapped part of the file, use the normal path.
+ * <p>
+ * Sequential scans read ahead: see PageReadAhead.
+ * <p>
+ * Inserts go straight to a page with an empty slot: see FreeSpaceMap.
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
@@ -25,7 +43,18 @@ class HeapFile implements DbFile
 {
     private File      file; // the corresponding file path
     private TupleDesc td; // tuple description
-    private int       maxPageNo; // the upper limit of page number in a heapfile
+    private volatile int numPages; // num of pages in file, kept up to date by writePage()
+
+    private transient FileChannel channel; // long-lived channel, opened on first use
+
+    public static final int MAP_SEGMENT_PAGES = 4096; // pages per mapped segment (16MB)
+
+    private final boolean                             memoryMapped; // read pages through mapped segments
+    private transient HashMap<Integer, MappedByteBuffer> segments; // segment no -> mapping
+    private transient HashSet<Integer>                 writtenPages; // pages written since the file was mapped
+
+    private final transient PageReadAhead readAhead = new PageReadAhead(this); // pages staged for sequential scans
+    private final transient FreeSpaceMap  freeSpace = new FreeSpaceMap(this); // pages with an empty slot
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -35,11 +64,34 @@ class HeapFile implements DbFile
      */
     public
     HeapFile(File f, TupleDesc td)
+    {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f            the file that stores the on-disk backing store for this heap
+     *                     file.
+     * @param memoryMapped if true, read pages through read-only memory-mapped segments
+     */
+    public
+    HeapFile(File f, TupleDesc td, boolean memoryMapped)
     {
         // some code goes here
         this.file = f;
         this.td = td;
-        this.maxPageNo = (int) f.length() / BufferPool.PAGE_SIZE - 1;
+        this.numPages = (int) (f.length() / BufferPool.PAGE_SIZE);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return true if pages are read through memory-mapped segments
+     */
+    public
+    boolean isMemoryMapped()
+    {
+        return memoryMapped;
     }
 
     /**
@@ -85,56 +137,74 @@ class HeapFile implements DbFile
     }
 
     /**
-     * Read the specified page from disk
-     * <p>
-     * RandomAccessFile is used to provide efficient access of the file
+     * Read the specified page from disk, or take it from the read-ahead
+     * staging area if a sequential scan has already read it.
      *
      * @param pid
      * @return
-     * @throws IOException
+     * @throws IllegalArgumentException if the file of this table does not exist
      */
     public
-    Page readPage(PageId pid) throws IOException
+    Page readPage(PageId pid)
     {
         // some code goes here
+        Page staged = readAhead.take(pid.pageNumber());
+        if (staged != null)
+        { return staged; }
+        return readPageFromDisk(pid);
+    }
+
+    /**
+     * Read the specified page from disk
+     * <p>
+     * A positional read on the shared FileChannel, no open/seek/close per page.
+     * A page past the end of the file reads as an empty page.
+     *
+     * @param pid
+     * @return
+     * @throws IllegalArgumentException if the file of this table does not exist
+     */
+    Page readPageFromDisk(PageId pid)
+    {
         int    page_no = pid.pageNumber();
-        int    offset  = BufferPool.PAGE_SIZE * page_no;
-        byte[] data    = new byte[BufferPool.PAGE_SIZE]; // buffer to store a file
-        /**
-         * RandomAccessFile allows to read from any part of a file
-         * so that we can start reading from the offset
-         */
-        RandomAccessFile raf = null;
+        long   offset  = (long) BufferPool.PAGE_SIZE * page_no;
+        byte[] data    = new byte[BufferPool.PAGE_SIZE]; // buffer to store a page
+
+        if (!file.exists())
+        { throw new IllegalArgumentException("file of table " + getId() + " does not exist"); }
 
-        /**
-         * read file
-         */
         try
         {
-            raf = new RandomAccessFile(file, "r");
-            // move the file pointer to the offset
-            raf.seek((long) offset);
-            raf.read(data, 0, BufferPool.PAGE_SIZE);
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
+            if (memoryMapped)
+            {
+                ByteBuffer mapped = mappedPage(page_no);
+                if (mapped != null)
+                { return new HeapPage((HeapPageId) pid, mapped); }
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining())
+            {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                { break; } // EOF, the rest of the page stays zero
+            }
+
+            /**
+             * return pages read
+             */
+            return new HeapPage((HeapPageId) pid, data);
         }
-        finally
+        catch (IOException e)
         {
-            raf.close();
+            throw new RuntimeException("failed to read page " + pid, e);
         }
-
-        /**
-         * return pages read
-         */
-        return new HeapPage((HeapPageId) pid, data);
     }
 
     /**
      * Push the specified page to disk.
      *
-     * @param p The page to write.  page.getId().pageno()
+     * @param page The page to write.  page.getId().pageno()
      *          specifies
      *          the offset into the file where the page should be
      *          written.
@@ -144,42 +214,201 @@ class HeapFile implements DbFile
     {
         // some code goes here
         // not necessary for proj1
-        int              page_no = page.getId().pageNumber();
-        int              offset  = page_no * BufferPool.PAGE_SIZE;
-        byte[]           data    = page.getPageData();
-        RandomAccessFile raf     = null;
+        int        page_no = page.getId().pageNumber();
+        long       offset  = (long) page_no * BufferPool.PAGE_SIZE;
+        ByteBuffer buf     = page.getPageBuffer();
 
-        try
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+        {
+            ch.write(buf, offset + buf.position());
+        }
+
+        written(page_no);
+    }
+
+    /**
+     * Push a run of pages with consecutive page numbers to disk with one
+     * gathering write, instead of one write per page.
+     *
+     * @param run pages of this file, sorted by page number, without gaps
+     */
+    public
+    void writePages(List<Page> run) throws IOException
+    {
+        if (run.size() == 1)
         {
-            raf = new RandomAccessFile(file, "rw");
-            raf.seek((long) offset);
-            raf.write(data, 0, BufferPool.PAGE_SIZE);
+            writePage(run.get(0));
+            return;
         }
-        catch (Exception e)
+
+        int          first = run.get(0).getId().pageNumber();
+        ByteBuffer[] bufs  = new ByteBuffer[run.size()];
+        for (int i = 0; i < bufs.length; i++)
         {
-            e.printStackTrace();
+            if (run.get(i).getId().pageNumber() != first + i)
+            { throw new IllegalArgumentException("pages of a run must be consecutive"); }
+            bufs[i] = run.get(i).getPageBuffer();
+        }
+
+        FileChannel ch = getChannel();
+        // the gathering write uses the position of the channel, reads and
+        // single page writes are positional and don't care
+        synchronized (ch)
+        {
+            ch.position((long) first * BufferPool.PAGE_SIZE);
+            while (bufs[bufs.length - 1].hasRemaining())
+            { ch.write(bufs); }
+        }
+
+        for (int i = 0; i < bufs.length; i++)
+        { written(first + i); }
+    }
+
+    /**
+     * bookkeeping after page page_no was written
+     */
+    private
+    void written(int page_no)
+    {
+        readAhead.invalidate(page_no); // a staged copy would be stale now
+
+        synchronized (this)
+        {
+            if (page_no >= numPages)
+            { numPages = page_no + 1; }
+            if (memoryMapped)
+            {
+                if (writtenPages == null)
+                { writtenPages = new HashSet<Integer>(); }
+                writtenPages.add(page_no);
+            }
+        }
+    }
+
+    /**
+     * Read the header of page page_no from disk into dst, without going
+     * through the BufferPool. Used to build the FreeSpaceMap.
+     *
+     * @param page_no
+     * @param dst     buffer sized to the header of a page of this file
+     * @throws IOException
+     */
+    void readPageHeader(int page_no, ByteBuffer dst) throws IOException
+    {
+        long        offset = (long) BufferPool.PAGE_SIZE * page_no;
+        FileChannel ch     = getChannel();
+        while (dst.hasRemaining())
+        {
+            if (ch.read(dst, offset + dst.position()) < 0)
+            { break; } // EOF, the rest reads as empty slots
         }
-        finally
+    }
+
+    /**
+     * return a slice of the mapped file holding page page_no, or null if
+     * the page has to be read through the normal path
+     *
+     * @param page_no
+     * @return
+     * @throws IOException
+     */
+    private synchronized
+    ByteBuffer mappedPage(int page_no) throws IOException
+    {
+        if (page_no >= numPages || (writtenPages != null && writtenPages.contains(page_no)))
+        { return null; }
+
+        int segment_no = page_no / MAP_SEGMENT_PAGES;
+        if (segments == null)
+        { segments = new HashMap<Integer, MappedByteBuffer>(); }
+        MappedByteBuffer segment = segments.get(segment_no);
+        if (segment == null)
         {
-            raf.close();
+            long start = (long) segment_no * MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+            long size  = Math.min((long) MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE, file.length() - start);
+            segment = getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+            segments.put(segment_no, segment);
         }
+
+        int offset = (page_no % MAP_SEGMENT_PAGES) * BufferPool.PAGE_SIZE;
+        if (offset + BufferPool.PAGE_SIZE > segment.capacity())
+        { return null; } // file has grown since the segment was mapped
+
+        ByteBuffer page = segment.duplicate();
+        page.position(offset);
+        page.limit(offset + BufferPool.PAGE_SIZE);
+        return page.slice();
     }
 
     /**
      * Returns the number of pages in this HeapFile.
+     * <p>
+     * Cached from the file length at open and bumped by writePage(), so it
+     * does not cost a stat of the file.
      */
     public
     int numPages()
     {
         // some code goes here
-        int num_page = (int) file.length() / BufferPool.PAGE_SIZE;
-        return num_page;
+        return numPages;
+    }
+
+    /**
+     * return the channel of this file, (re)opening it if needed
+     *
+     * @return
+     * @throws IOException
+     */
+    private synchronized
+    FileChannel getChannel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        { channel = new RandomAccessFile(file, "rw").getChannel(); }
+        return channel;
+    }
+
+    /**
+     * @return the pages staged for sequential scans of this file
+     */
+    PageReadAhead getReadAhead()
+    {
+        return readAhead;
+    }
+
+    /**
+     * Close the channel of this file. The channel is reopened if the file
+     * is used again.
+     */
+    public synchronized
+    void close()
+    {
+        readAhead.clear();
+        freeSpace.clear();
+        // mappings can't be unmapped explicitly, they go away with the buffers
+        segments = null;
+        writtenPages = null;
+        if (channel == null)
+        { return; }
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        channel = null;
     }
 
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * <p>
+     * Only pages the FreeSpaceMap lists as having an empty slot are locked.
+     * A listed page that is full after all is dropped from the map, and its
+     * lock is released again if this transaction did not hold it before.
      *
      * @param tid The transaction performing the update
      * @param t   The tuple to add.  This tuple should be
@@ -193,32 +422,38 @@ class HeapFile implements DbFile
     {
         // some code goes here
         // not necessary for proj1
-        System.out.format("HF insertTuple %s\n", t);
-        for (int i = 0; i < numPages(); i++)
+        BufferPool bp = Database.getBufferPool();
+        for (int i = freeSpace.nextPageWithSpace(0); i >= 0; i = freeSpace.nextPageWithSpace(i + 1))
         {
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
-                    tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            try
+            HeapPageId pid  = new HeapPageId(getId(), i);
+            boolean    held = bp.holdsLock(tid, pid);
+            HeapPage   page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0)
             {
-                page.insertTuple(t); // exception if page is full
+                page.insertTuple(t);
+                if (page.getNumEmptySlots() == 0)
+                { freeSpace.setHasSpace(i, false); }
                 ArrayList<Page> modified_page = new ArrayList<Page>();
                 modified_page.add(page);
                 return modified_page;
             }
-            catch (Exception e)
-            {
-//                e.printStackTrace();
-                System.out.format("HeapFile.insertTuple(): page is full.\n");
-            }
+
+            freeSpace.setHasSpace(i, false);
+            if (!held)
+            { bp.releasePage(tid, pid); } // page neither read nor changed by tid
         }
 
         /**
          * all pages are full, need a new page
          */
-        byte[] data = HeapPage.createEmptyPageData();
-        System.out.format("add a new page with id: %d\n", numPages());
-        HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), data);
-        writePage(newPage);
+        int page_no;
+        synchronized (this)
+        {
+            page_no = numPages();
+            System.out.format("add a new page with id: %d\n", page_no);
+            writePage(new HeapPage(new HeapPageId(getId(), page_no), HeapPage.createEmptyPageData()));
+        }
+        freeSpace.setHasSpace(page_no, true);
         return insertTuple(tid, t); // recursively insert to new page via BP
     }
 
@@ -236,6 +471,7 @@ class HeapFile implements DbFile
         HeapPage current_page = (HeapPage) Database.getBufferPool().getPage(
                 tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         current_page.deleteTuple(t);
+        freeSpace.setHasSpace(current_page.getId().pageNumber(), true);
         return current_page;
     }
 
@@ -256,7 +492,19 @@ class HeapFile implements DbFile
     DbFileIterator iterator(TransactionId tid)
     {
         // some code goes here
-        return new FileIterator(tid);
+        return new FileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that p accepts. p is
+     * tested on the page bytes, so the tuples it rejects are never decoded.
+     *
+     * @see HeapPage#iterator(Predicate)
+     */
+    public
+    DbFileIterator iterator(TransactionId tid, Predicate p)
+    {
+        return new FileIterator(tid, p);
     }
 
     /**
@@ -273,11 +521,16 @@ class HeapFile implements DbFile
         private TransactionId   tid           = null;
         private int             tableId       = 0;
         private boolean opened;
+        private int             lastPageNo    = -1; // page no loaded before the current one
+        private int             sequentialRun = 0; // num of pages loaded in sequence so far
+        private int             prefetchEnd   = 0; // page no past the last page this scan prefetched
+        private final Predicate predicate; // null for all tuples
 
         public
-        FileIterator(TransactionId tid)
+        FileIterator(TransactionId tid, Predicate predicate)
         {
             this.tid = tid;
+            this.predicate = predicate;
             tableId = getId(); // heapfile id
         }
 
@@ -315,7 +568,7 @@ class HeapFile implements DbFile
                  */
                 else
                 {
-                    if (currentPageNo < maxPageNo)
+                    if (currentPageNo < numPages() - 1)
                     {
                         currentPageNo++;
                         loadPage();
@@ -361,6 +614,7 @@ class HeapFile implements DbFile
         public
         void rewind() throws DbException, TransactionAbortedException
         {
+            dropReadAhead();
             currentPageNo = 0;
             tableId = getId();
             loadPage();
@@ -372,6 +626,7 @@ class HeapFile implements DbFile
         public
         void close()
         {
+            dropReadAhead();
             currentPageNo = 0;
             currentPageId = null;
             currentPage = null;
@@ -387,6 +642,7 @@ class HeapFile implements DbFile
         private
         void loadPage() throws DbException, TransactionAbortedException
         {
+            startReadAhead();
             currentPageId = new HeapPageId(tableId, currentPageNo); // init current page to be the 1st page of a heapfile (table)
             System.out.format("tid %s, HF getPage from BP, pid %s, perm: %s\n", tid, currentPageId, Permissions.READ_WRITE);
 
@@ -406,7 +662,8 @@ class HeapFile implements DbFile
             }
             try
             {
-                tuples = ((HeapPage) currentPage).iterator();
+                HeapPage page = (HeapPage) currentPage;
+                tuples = predicate == null ? page.iterator() : page.iterator(predicate);
             }
             catch (Exception e)
             {
@@ -414,6 +671,44 @@ class HeapFile implements DbFile
             }
             // HeapPage iterator to iterate through all tuples in a page
         }
+
+        /**
+         * helper function to start reading the next pages in the background
+         * once the scan is seen to be sequential, unless the buffer pool is
+         * under pressure
+         */
+        private
+        void startReadAhead()
+        {
+            if (currentPageNo == lastPageNo + 1)
+            { sequentialRun++; }
+            else
+            { sequentialRun = 0; }
+            lastPageNo = currentPageNo;
+
+            if (sequentialRun >= 2 && !Database.getBufferPool().underPressure(PageReadAhead.READ_AHEAD_PAGES))
+            {
+                readAhead.prefetch(currentPageNo + 1, PageReadAhead.READ_AHEAD_PAGES);
+                prefetchEnd = Math.max(prefetchEnd, currentPageNo + 1 + PageReadAhead.READ_AHEAD_PAGES);
+            }
+        }
+
+        /**
+         * helper function to drop the pages this scan prefetched but did not
+         * get to, so a scan that stops early (e.g. under a LIMIT) does not
+         * use up the staging area of the file
+         */
+        private
+        void dropReadAhead()
+        {
+            if (prefetchEnd > currentPageNo + 1)
+            {
+                readAhead.cancel(currentPageNo + 1, prefetchEnd - currentPageNo - 1);
+            }
+            prefetchEnd = 0;
+            lastPageNo = -1;
+            sequentialRun = 0;
+        }
     }
 
 }
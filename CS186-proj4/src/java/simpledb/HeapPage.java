@@ -4,6 +4,7 @@ import javax.naming.OperationNotSupportedException;
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data
@@ -17,6 +18,8 @@ public
 class HeapPage implements Page
 {
 
+    private static final byte[] ZEROES = new byte[BufferPool.PAGE_SIZE];
+
     HeapPageId pid; // page id
     TupleDesc  td; // tuple desc
     byte       header[]; // header of tuples in page
@@ -25,7 +28,17 @@ class HeapPage implements Page
     boolean dirty;
     TransactionId tid;
 
-    byte[] oldData;
+    byte[]     oldData;
+    ByteBuffer oldImage; // read-only view of the page on disk, copied to oldData before the first change
+
+    /**
+     * the page as read from disk, never written. A used slot whose entry in
+     * tuples[] is still null has not been decoded yet and is read from here.
+     */
+    ByteBuffer raw;
+    ByteBuffer cursor; // relative reader over raw, used by getTuple() under the page monitor
+    ByteBuffer cached; // current bytes of the page, null once it may have changed
+    int[]      fieldOffsets; // byte offset of each field inside a tuple
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -50,40 +63,45 @@ class HeapPage implements Page
      */
     public
     HeapPage(HeapPageId id, byte[] data) throws IOException
+    {
+        // copied, so the caller may reuse its array
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage straight from a buffer holding the page, e.g. a
+     * slice of a memory-mapped HeapFile. Only the header is read up front;
+     * a tuple is decoded the first time it is asked for, and the typed
+     * accessors {@link #getInt} / {@link #getStringBytes} read fields without
+     * building a Tuple at all, see {@link #iterator(Predicate)}. No copy of
+     * the page is made, so the buffer must not be written while the page is
+     * in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException
     {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-//        System.out.format("numSlots = %d\n", numSlots);
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer buf = data.duplicate();
 
-        // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-//        System.out.format("header length = %d\n", header.length);
-        for (int i = 0; i < header.length; i++)
-        { header[i] = dis.readByte(); }
+        buf.get(header);
 
-        try
-        {
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i = 0; i < tuples.length; i++)
-            {
-                /**
-                 * readNextTuple() only returns used tuple
-                 * so only front of tuples[] is used
-                 * the rest is all empty
-                 */
-                tuples[i] = readNextTuple(dis, i);
-            }
-        }
-        catch (NoSuchElementException e)
-        {
-            e.printStackTrace();
-        }
-        dis.close();
+        // tuples are decoded lazily by getTuple()
+        tuples = new Tuple[numSlots];
+        this.raw = data.duplicate();
+        this.cursor = null;
+        this.cached = raw.remaining() == BufferPool.PAGE_SIZE ? raw : null;
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+        { fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen(); }
 
-        setBeforeImage();
+        // the before image is the buffer itself until the page changes
+        this.oldImage = data.asReadOnlyBuffer();
+        this.oldData = null;
 
         this.dirty = false;
         this.tid = null;
@@ -126,6 +144,7 @@ class HeapPage implements Page
     public
     HeapPage getBeforeImage()
     {
+        keepBeforeImage();
         try
         {
             return new HeapPage(pid, oldData);
@@ -142,7 +161,23 @@ class HeapPage implements Page
     public
     void setBeforeImage()
     {
-        oldData = getPageData().clone();
+        oldData = getPageData();
+        oldImage = null;
+    }
+
+    /**
+     * copy the before image out of the page buffer, must be called before
+     * the page is modified
+     */
+    private
+    void keepBeforeImage()
+    {
+        if (oldData == null && oldImage != null)
+        {
+            oldData = new byte[BufferPool.PAGE_SIZE];
+            oldImage.duplicate().get(oldData);
+            oldImage = null;
+        }
     }
 
     /**
@@ -157,40 +192,118 @@ class HeapPage implements Page
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Byte offset in the page of field j of the tuple in slot i
      */
     private
-    Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException
+    int fieldOffset(int i, int j)
     {
-        // if associated bit is not set,
-        // read forward to the next tuple,
-        // and return null.
-        if (!isSlotUsed(slotId))
+        return header.length + i * td.getSize() + fieldOffsets[j];
+    }
+
+    /**
+     * Return the tuple in slot i, decoding it from the page bytes the
+     * first time it is asked for. The caller may change the tuple in
+     * place, so the page is serialized again on the next getPageData().
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public synchronized
+    Tuple getTuple(int i)
+    {
+        if (!isSlotUsed(i))
+        { return null; }
+        if (tuples[i] == null)
         {
-            for (int i = 0; i < td.getSize(); i++)
-            {
-                try
-                {
-                    dis.readByte();
-                }
-                catch (IOException e)
-                {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+            if (cursor == null)
+            { cursor = raw.duplicate(); }
+            cursor.position(fieldOffset(i, 0));
+            tuples[i] = readNextTuple(cursor, i);
         }
+        cached = null;
+        return tuples[i];
+    }
+
+    /**
+     * Read int field j of the tuple in slot i without building the Tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     * @throws IllegalArgumentException if field j is not an INT_TYPE
+     */
+    public synchronized
+    int getInt(int i, int j)
+    {
+        checkField(i, j, Type.INT_TYPE);
+        Tuple t = tuples[i];
+        if (t != null)
+        { return ((IntField) t.getField(j)).getValue(); }
+        return raw.getInt(fieldOffset(i, j));
+    }
+
+    /**
+     * Read the bytes of string field j of the tuple in slot i without
+     * building the Tuple or a String.
+     *
+     * @return the string bytes, without the length prefix and padding
+     * @throws NoSuchElementException if the slot is empty
+     * @throws IllegalArgumentException if field j is not a STRING_TYPE
+     */
+    public synchronized
+    byte[] getStringBytes(int i, int j)
+    {
+        checkField(i, j, Type.STRING_TYPE);
+        Tuple t = tuples[i];
+        if (t != null)
+        { return ((StringField) t.getField(j)).getValue().getBytes(); }
+
+        int off    = fieldOffset(i, j);
+        int strLen = raw.getInt(off);
+        if (strLen < 0 || strLen > Type.STRING_LEN)
+        { throw new NoSuchElementException("bad string length " + strLen); }
+        byte[] bs = new byte[strLen];
+        for (int k = 0; k < strLen; k++)
+        { bs[k] = raw.get(off + 4 + k); }
+        return bs;
+    }
+
+    /**
+     * Evaluate p on the tuple in slot i through the typed accessors, so the
+     * tuple is not decoded. An int field is compared without allocating, a
+     * string field without reading the other fields.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public
+    boolean matches(int i, Predicate p)
+    {
+        int j = p.getField();
+        if (td.getFieldType(j) == Type.INT_TYPE)
+        { return IntField.compare(getInt(i, j), p.getOp(), ((IntField) p.getOperand()).getValue()); }
+        StringField f = new StringField(new String(getStringBytes(i, j)), Type.STRING_LEN);
+        return f.compare(p.getOp(), p.getOperand());
+    }
+
+    private
+    void checkField(int i, int j, Type type)
+    {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+        { throw new NoSuchElementException("slot " + i + " is empty"); }
+        if (td.getFieldType(j) != type)
+        { throw new IllegalArgumentException("field " + j + " is not " + type); }
+    }
 
-        // read fields in the tuple
-        Tuple    t   = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Read the tuple in slotId from the current position of buf
+     */
+    private
+    Tuple readNextTuple(ByteBuffer buf, int slotId) throws NoSuchElementException
+    {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
         try
         {
             for (int j = 0; j < td.numFields(); j++)
             {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.setField(j, td.getFieldType(j).parse(buf));
             }
         }
         catch (java.text.ParseException e)
@@ -198,7 +311,6 @@ class HeapPage implements Page
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
         return t;
     }
 
@@ -215,88 +327,93 @@ class HeapPage implements Page
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
+     * @see #getPageBuffer
      */
     public
     byte[] getPageData()
     {
-        int                   len  = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream      dos  = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        getPageBuffer().get(data);
+        return data;
+    }
 
-        // create the header of the page
-        for (int i = 0; i < header.length; i++)
+    /**
+     * Return a read-only buffer holding the same bytes as getPageData(),
+     * without copying them.
+     *
+     * A page none of whose tuples has been handed out or changed since it
+     * was read is returned as it is. Otherwise the page is serialized with
+     * bulk puts into a new buffer, which is reused until the next
+     * getTuple/insertTuple/deleteTuple, so flushing and logging the same
+     * page only serialize it once. A buffer once handed out is never
+     * written again, so a write still reading it is not disturbed.
+     */
+    public synchronized
+    ByteBuffer getPageBuffer()
+    {
+        if (cached == null)
         {
-            try
-            {
-                dos.writeByte(header[i]);
-            }
-            catch (IOException e)
-            {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+            ByteBuffer image = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            writePageData(image);
+            cached = image;
         }
+        ByteBuffer buf = cached.asReadOnlyBuffer();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Serialize this page into buf from position 0. Runs of empty slots
+     * and the padding at the end are written as a single run of zeroes.
+     */
+    private
+    void writePageData(ByteBuffer buf)
+    {
+        int        tupleSize = td.getSize();
+        int        zeroes    = 0; // zero bytes not written yet
+        ByteBuffer src       = null;
+
+        // create the header of the page
+        buf.put(header);
 
         // create the tuples
         for (int i = 0; i < tuples.length; i++)
         {
-
             // empty slot
             if (!isSlotUsed(i))
             {
-                for (int j = 0; j < td.getSize(); j++)
-                {
-                    try
-                    {
-                        dos.writeByte(0);
-                    }
-                    catch (IOException e)
-                    {
-                        e.printStackTrace();
-                    }
-
-                }
+                zeroes += tupleSize;
                 continue;
             }
+            putZeroes(buf, zeroes);
+            zeroes = 0;
 
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++)
+            // non-empty slot never decoded, copy it as it is
+            if (tuples[i] == null)
             {
-                Field f = tuples[i].getField(j);
-                try
-                {
-                    f.serialize(dos);
-
-                }
-                catch (IOException e)
-                {
-                    e.printStackTrace();
-                }
+                if (src == null)
+                { src = raw.duplicate(); }
+                int off = fieldOffset(i, 0);
+                src.limit(off + tupleSize);
+                src.position(off);
+                buf.put(src);
+                continue;
             }
-        }
 
-        // padding
-        int    zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes  = new byte[zerolen];
-        try
-        {
-            dos.write(zeroes, 0, zerolen);
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
+            // non-empty slot
+            for (int j = 0; j < td.numFields(); j++)
+            { tuples[i].getField(j).serialize(buf); }
         }
 
-        try
-        {
-            dos.flush();
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-        }
+        // padding
+        putZeroes(buf, buf.remaining());
+    }
 
-        return baos.toByteArray();
+    private static
+    void putZeroes(ByteBuffer buf, int n)
+    {
+        for (; n > 0; n -= ZEROES.length)
+        { buf.put(ZEROES, 0, Math.min(n, ZEROES.length)); }
     }
 
     /**
@@ -328,12 +445,14 @@ class HeapPage implements Page
     {
         // some code goes here
         // not necessary for lab1
+        keepBeforeImage();
         for (int i=0; i<tuples.length; i++)
         {
-            if (tuples[i] != null && this.tuples[i].equals(t))
+            if (getTuple(i) != null && this.tuples[i].equals(t))
             {
 //                System.out.format("found tuple: %d\n", i);
                 tuples[i] = null;
+                cached = null;
                 markDirty(true, null);
                 markSlotUsed(i, false);
                 t.setRecordId(null);
@@ -360,12 +479,14 @@ class HeapPage implements Page
         if (getNumEmptySlots() == 0 || !this.td.equals(t.getTupleDesc()))
             throw new DbException("no empty slot or tuple desc not match.");
 
+        keepBeforeImage();
         for (int i=0; i<tuples.length; i++)
         {
             if (!isSlotUsed(i))
             {
                 t.setRecordId(new RecordId(pid, i));
                 tuples[i] = t;
+                cached = null;
                 markSlotUsed(i, true);
                 markDirty(true, tid);
                 break;
@@ -483,23 +604,45 @@ class HeapPage implements Page
     Iterator<Tuple> iterator()
     {
         // some code goes here
-        return new TupleIterator();
+        return new TupleIterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that p accepts. p is
+     * tested on the page bytes with {@link #matches}, so only the tuples
+     * returned are decoded.
+     */
+    public
+    Iterator<Tuple> iterator(Predicate p)
+    {
+        return new TupleIterator(p);
     }
 
     private class TupleIterator implements Iterator<Tuple>
     {
         private int i = 0;
+        private final Predicate p; // null for all tuples
+
+        TupleIterator(Predicate p)
+        {
+            this.p = p;
+        }
 
         public boolean hasNext()
         {
 //            System.out.format("hasNext i = %d\n", i);
+            if (p != null)
+            {
+                while (i < tuples.length && isSlotUsed(i) && !matches(i, p))
+                    i++;
+            }
             return (i < tuples.length && isSlotUsed(i));
         }
 
         public Tuple next()
         {
             if (!hasNext()) throw new NoSuchElementException("tuple underflow");
-            return tuples[i++];
+            return getTuple(i++);
         }
 
         public void remove()
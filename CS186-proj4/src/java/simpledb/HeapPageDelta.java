@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The slots of a HeapPage that an update changed: for each of them, whether
+ * it was used before and after the update, and the tuple bytes it held.
+ * LogFile logs this instead of the full before and after images of the page.
+ * <p>
+ * A delta sets slots to a given state rather than changing them relative to
+ * what is there, so redoing or undoing it twice does no harm. Empty slots
+ * are zeroed, as HeapPage serializes them.
+ */
+class HeapPageDelta
+{
+    private static final int USED_BEFORE = 1;
+    private static final int USED_AFTER  = 2;
+
+    private final HeapPageId pid;
+    private final int        tupleSize;
+    private final int[]      slots;
+    private final byte[]     flags; // USED_BEFORE | USED_AFTER of each slot
+    private final byte[][]   before; // tuple bytes before the update, null if the slot was empty
+    private final byte[][]   after; // tuple bytes after the update, null if the slot is empty
+
+    private
+    HeapPageDelta(HeapPageId pid, int tupleSize, int[] slots, byte[] flags, byte[][] before, byte[][] after)
+    {
+        this.pid = pid;
+        this.tupleSize = tupleSize;
+        this.slots = slots;
+        this.flags = flags;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return the slots that differ between two images of the same page
+     */
+    static
+    HeapPageDelta diff(HeapPage before, HeapPage after)
+    {
+        int        tupleSize  = after.td.getSize();
+        int        headerSize = headerSize(tupleSize);
+        ByteBuffer b          = before.getPageBuffer();
+        ByteBuffer a          = after.getPageBuffer();
+
+        ArrayList<Integer> changed = new ArrayList<Integer>();
+        for (int i = 0; i < after.numSlots; i++)
+        {
+            boolean usedBefore = isUsed(b, i);
+            boolean usedAfter  = isUsed(a, i);
+            if (usedBefore != usedAfter || (usedAfter && !sameTuple(b, a, headerSize + i * tupleSize, tupleSize)))
+            { changed.add(i); }
+        }
+
+        int      n         = changed.size();
+        int[]    slots     = new int[n];
+        byte[]   flags     = new byte[n];
+        byte[][] beforeTup = new byte[n][];
+        byte[][] afterTup  = new byte[n][];
+        for (int k = 0; k < n; k++)
+        {
+            int i   = changed.get(k);
+            int off = headerSize + i * tupleSize;
+            slots[k] = i;
+            if (isUsed(b, i))
+            {
+                flags[k] |= USED_BEFORE;
+                beforeTup[k] = tuple(b, off, tupleSize);
+            }
+            if (isUsed(a, i))
+            {
+                flags[k] |= USED_AFTER;
+                afterTup[k] = tuple(a, off, tupleSize);
+            }
+        }
+        return new HeapPageDelta(after.getId(), tupleSize, slots, flags, beforeTup, afterTup);
+    }
+
+    HeapPageId getPageId()
+    {
+        return pid;
+    }
+
+    /**
+     * @return num of slots the update changed
+     */
+    int size()
+    {
+        return slots.length;
+    }
+
+    /**
+     * @return page with the update applied
+     */
+    HeapPage redo(Page page) throws IOException
+    {
+        return apply(page, USED_AFTER, after);
+    }
+
+    /**
+     * @return page with the update taken back
+     */
+    HeapPage undo(Page page) throws IOException
+    {
+        return apply(page, USED_BEFORE, before);
+    }
+
+    private
+    HeapPage apply(Page page, int used, byte[][] tuples) throws IOException
+    {
+        byte[] data       = page.getPageData();
+        int    headerSize = headerSize(tupleSize);
+        for (int k = 0; k < slots.length; k++)
+        {
+            int i   = slots[k];
+            int off = headerSize + i * tupleSize;
+            if ((flags[k] & used) != 0)
+            {
+                data[i / 8] |= (byte) (1 << (i % 8));
+                System.arraycopy(tuples[k], 0, data, off, tupleSize);
+            }
+            else
+            {
+                data[i / 8] &= (byte) ~(1 << (i % 8));
+                Arrays.fill(data, off, off + tupleSize, (byte) 0);
+            }
+        }
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Write this delta, read back by read()
+     * <p>
+     * table id, page number, tuple size, num of slots, then for each slot
+     * its number, its flags and the tuple bytes before and after the update
+     * where the slot is used.
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.pageNumber());
+        out.writeInt(tupleSize);
+        out.writeInt(slots.length);
+        for (int k = 0; k < slots.length; k++)
+        {
+            out.writeInt(slots[k]);
+            out.writeByte(flags[k]);
+            if (before[k] != null)
+            { out.write(before[k]); }
+            if (after[k] != null)
+            { out.write(after[k]); }
+        }
+    }
+
+    static
+    HeapPageDelta read(DataInput in) throws IOException
+    {
+        HeapPageId pid       = new HeapPageId(in.readInt(), in.readInt());
+        int        tupleSize = in.readInt();
+        int        n         = in.readInt();
+        int[]      slots     = new int[n];
+        byte[]     flags     = new byte[n];
+        byte[][]   before    = new byte[n][];
+        byte[][]   after     = new byte[n][];
+        for (int k = 0; k < n; k++)
+        {
+            slots[k] = in.readInt();
+            flags[k] = in.readByte();
+            if ((flags[k] & USED_BEFORE) != 0)
+            {
+                before[k] = new byte[tupleSize];
+                in.readFully(before[k]);
+            }
+            if ((flags[k] & USED_AFTER) != 0)
+            {
+                after[k] = new byte[tupleSize];
+                in.readFully(after[k]);
+            }
+        }
+        return new HeapPageDelta(pid, tupleSize, slots, flags, before, after);
+    }
+
+    /**
+     * skip a delta written by write() without building it
+     */
+    static
+    void skip(DataInput in) throws IOException
+    {
+        in.skipBytes(2 * 4);
+        int tupleSize = in.readInt();
+        int n         = in.readInt();
+        for (int k = 0; k < n; k++)
+        {
+            in.readInt();
+            int flags = in.readByte();
+            in.skipBytes(Integer.bitCount(flags & (USED_BEFORE | USED_AFTER)) * tupleSize);
+        }
+    }
+
+    /**
+     * header size of a HeapPage with tuples of tupleSize bytes, see
+     * HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    private static
+    int headerSize(int tupleSize)
+    {
+        int numSlots = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        return (numSlots + 7) / 8;
+    }
+
+    private static
+    boolean isUsed(ByteBuffer page, int i)
+    {
+        return (page.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    private static
+    boolean sameTuple(ByteBuffer a, ByteBuffer b, int off, int len)
+    {
+        for (int j = off; j < off + len; j++)
+        {
+            if (a.get(j) != b.get(j))
+            { return false; }
+        }
+        return true;
+    }
+
+    private static
+    byte[] tuple(ByteBuffer page, int off, int len)
+    {
+        byte[] t = new byte[len];
+        for (int j = 0; j < len; j++)
+        { t[j] = page.get(off + j); }
+        return t;
+    }
+}
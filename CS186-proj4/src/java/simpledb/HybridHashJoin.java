@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HybridHashJoin is the equality join of Join and HashEquiJoin. It builds
+ * hash tables over the build input and probes them with the probe input,
+ * returning the concatenation of each build tuple and probe tuple whose
+ * join fields are equal.
+ * <p>
+ * The hash tables are held to a memory budget. Build tuples are
+ * hash-partitioned on the join field into FANOUT partitions, each with a
+ * hash table of its own. While the tables do not fit, the largest one is
+ * spilled to a SpillFile, and later build tuples of spilled partitions go
+ * to their file. Probe tuples of partitions still in memory are joined
+ * right away, and those of spilled partitions are written to a SpillFile
+ * of their own. Each pair of spilled partitions is then joined by a
+ * HybridHashJoin of its own, with another hash, so each input is read once
+ * and spilled tuples are written and read once per level of partitioning.
+ * <p>
+ * The inputs are not opened, rewound or closed here, except the spill
+ * files of the partitions, which are read and deleted as they are joined.
+ */
+class HybridHashJoin
+{
+    /**
+     * bytes a build tuple is taken to need besides its fields' data: the
+     * Tuple, its field array, its list entry and share of the table entry
+     */
+    static final int TUPLE_OVERHEAD = 96;
+
+    /**
+     * bytes a field object is taken to need besides its data
+     */
+    static final int FIELD_OVERHEAD = 16;
+
+    /**
+     * number of partitions the inputs are split into
+     */
+    static final int FANOUT = 16;
+
+    /**
+     * partitions this deep are joined in memory whatever their size, so
+     * keys that hash alike cannot partition forever
+     */
+    static final int MAX_LEVEL = 4;
+
+    private final DbIterator build;
+    private final DbIterator probe;
+    private final int        buildField;
+    private final int        probeField;
+    private final TupleDesc  td; // of the joined tuples
+    private final long       memoryBudget;
+    private final int        level; // times the inputs have been partitioned
+
+    private ArrayList<HashMap<Field, ArrayList<Tuple>>> tables; // null for spilled partitions
+    private long[]      tableBytes;
+    private long        used; // bytes of the tables in memory
+    private SpillFile[] buildSpills; // build tuples of spilled partitions, null for the others
+    private SpillFile[] probeSpills; // probe tuples of spilled partitions, null if none
+    private int         spilled; // number of spilled partitions
+
+    private Tuple           probeTuple;
+    private Iterator<Tuple> matches; // build tuples equal to probeTuple not yet joined
+    private boolean         probed; // the probe input is read
+    private int             partition; // next spilled partition to join
+    private HybridHashJoin  partitionJoin; // join of the current spilled partition
+
+    /**
+     * @param build        the input hash tables are built over, the left one of
+     *                     the joined tuples
+     * @param buildField   the join field of build
+     * @param probe        the input probing the hash tables, the right one of
+     *                     the joined tuples
+     * @param probeField   the join field of probe
+     * @param td           the TupleDesc of the joined tuples
+     * @param memoryBudget bytes the hash tables may take
+     */
+    HybridHashJoin(DbIterator build, int buildField, DbIterator probe, int probeField, TupleDesc td,
+                   long memoryBudget)
+    {
+        this(build, buildField, probe, probeField, td, memoryBudget, 0);
+    }
+
+    private
+    HybridHashJoin(DbIterator build, int buildField, DbIterator probe, int probeField, TupleDesc td,
+                   long memoryBudget, int level)
+    {
+        this.build = build;
+        this.buildField = buildField;
+        this.probe = probe;
+        this.probeField = probeField;
+        this.td = td;
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+    }
+
+    /**
+     * @return the number of partitions spilled at the top level, 0 if the
+     * build input fit the budget
+     */
+    int numSpilled()
+    {
+        return spilled;
+    }
+
+    /**
+     * Read the open build input into the hash tables and spill files
+     */
+    void open() throws DbException, TransactionAbortedException
+    {
+        TupleDesc buildTd    = build.getTupleDesc();
+        long      tupleBytes = TUPLE_OVERHEAD + buildTd.numFields() * FIELD_OVERHEAD + buildTd.getSize();
+
+        tables = new ArrayList<HashMap<Field, ArrayList<Tuple>>>(FANOUT);
+        for (int p = 0; p < FANOUT; p++)
+        { tables.add(new HashMap<Field, ArrayList<Tuple>>()); }
+        tableBytes = new long[FANOUT];
+        used = 0;
+        buildSpills = new SpillFile[FANOUT];
+        probeSpills = new SpillFile[FANOUT];
+        spilled = 0;
+        probeTuple = null;
+        matches = null;
+        probed = false;
+        partition = 0;
+        partitionJoin = null;
+
+        try
+        {
+            while (build.hasNext())
+            {
+                Tuple t = build.next();
+                Field f = t.getField(buildField);
+                int   p = SpillFile.partition(f, level, FANOUT);
+                if (buildSpills[p] != null)
+                {
+                    buildSpills[p].add(t);
+                    continue;
+                }
+
+                ArrayList<Tuple> list = tables.get(p).get(f);
+                if (list == null)
+                {
+                    list = new ArrayList<Tuple>();
+                    tables.get(p).put(f, list);
+                }
+                list.add(t);
+                tableBytes[p] += tupleBytes;
+                used += tupleBytes;
+                while (used > memoryBudget && level < MAX_LEVEL && spilled < FANOUT)
+                { spillLargest(); }
+            }
+        }
+        catch (IOException e)
+        { throw new DbException("can't spill join input: " + e); }
+    }
+
+    /**
+     * write the largest hash table in memory to its partition's spill file
+     */
+    private
+    void spillLargest() throws IOException
+    {
+        int largest = -1;
+        for (int p = 0; p < FANOUT; p++)
+        {
+            if (buildSpills[p] == null && (largest < 0 || tableBytes[p] > tableBytes[largest]))
+            { largest = p; }
+        }
+
+        SpillFile file = new SpillFile(build.getTupleDesc());
+        for (ArrayList<Tuple> list : tables.get(largest).values())
+        {
+            for (Tuple t : list)
+            { file.add(t); }
+        }
+        buildSpills[largest] = file;
+        tables.set(largest, null);
+        used -= tableBytes[largest];
+        tableBytes[largest] = 0;
+        spilled++;
+    }
+
+    /**
+     * @return the next joined tuple, or null if there are no more
+     */
+    Tuple next() throws DbException, TransactionAbortedException
+    {
+        try
+        {
+            while (!probed)
+            {
+                if (matches != null && matches.hasNext())
+                { return join(matches.next(), probeTuple); }
+                matches = null;
+
+                if (!probe.hasNext())
+                {
+                    // the tables are done with, leave the budget to the partitions
+                    probed = true;
+                    tables = null;
+                    break;
+                }
+                probeTuple = probe.next();
+                Field f = probeTuple.getField(probeField);
+                int   p = SpillFile.partition(f, level, FANOUT);
+                if (buildSpills[p] != null)
+                {
+                    if (probeSpills[p] == null)
+                    { probeSpills[p] = new SpillFile(probe.getTupleDesc()); }
+                    probeSpills[p].add(probeTuple);
+                }
+                else
+                {
+                    ArrayList<Tuple> list = tables.get(p).get(f);
+                    if (list != null)
+                    { matches = list.iterator(); }
+                }
+            }
+
+            // then the tuples of each pair of spilled partitions
+            while (true)
+            {
+                if (partitionJoin != null)
+                {
+                    Tuple t = partitionJoin.next();
+                    if (t != null)
+                    { return t; }
+                    closePartition();
+                }
+                // a partition without probe tuples joins nothing
+                while (partition < FANOUT && (buildSpills[partition] == null || probeSpills[partition] == null))
+                { partition++; }
+                if (partition == FANOUT)
+                { return null; }
+
+                DbIterator b = buildSpills[partition].iterator();
+                DbIterator p = probeSpills[partition].iterator();
+                b.open();
+                p.open();
+                partitionJoin = new HybridHashJoin(b, buildField, p, probeField, td, memoryBudget, level + 1);
+                partitionJoin.open();
+            }
+        }
+        catch (IOException e)
+        { throw new DbException("can't spill join input: " + e); }
+    }
+
+    /**
+     * close the join of the current partition and delete its spill files
+     */
+    private
+    void closePartition()
+    {
+        partitionJoin.close();
+        partitionJoin.build.close();
+        partitionJoin.probe.close();
+        partitionJoin = null;
+        buildSpills[partition].delete();
+        probeSpills[partition].delete();
+        buildSpills[partition] = null;
+        probeSpills[partition] = null;
+        partition++;
+    }
+
+    private
+    Tuple join(Tuple t1, Tuple t2)
+    {
+        Tuple t    = new Tuple(td);
+        int   td1n = t1.getTupleDesc().numFields();
+        for (int i = 0; i < td1n; i++)
+        { t.setField(i, t1.getField(i)); }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+        { t.setField(td1n + i, t2.getField(i)); }
+        return t;
+    }
+
+    /**
+     * Drop the hash tables and delete the spill files
+     */
+    void close()
+    {
+        if (partitionJoin != null)
+        { closePartition(); }
+        for (SpillFile[] files : new SpillFile[][]{buildSpills, probeSpills})
+        {
+            if (files == null)
+            { continue; }
+            for (SpillFile f : files)
+            {
+                if (f != null)
+                { f.delete(); }
+            }
+        }
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        matches = null;
+        probeTuple = null;
+    }
+}
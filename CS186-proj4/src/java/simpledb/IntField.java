@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -54,6 +55,12 @@ class IntField implements Field
         dos.writeInt(value);
     }
 
+    public
+    void serialize(ByteBuffer buf)
+    {
+        buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -67,27 +74,37 @@ class IntField implements Field
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compare two int values the way IntFields holding them compare, without
+     * boxing them
+     */
+    static
+    boolean compare(int value, Predicate.Op op, int operand)
+    {
         switch (op)
         {
             case EQUALS:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
 
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
 
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
 
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
 
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
 
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
         }
 
         return false;
@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.util.Map;
-import java.util.ArrayList;
 import java.util.*;
 
 /**
@@ -19,8 +18,8 @@ class IntegerAggregator implements Aggregator
     private Type                         gbfieldtype;
     private int                          afield;
     private Op                           op;
-    private Map<Field, ArrayList<Tuple>> groupby_tuples;
-    private ArrayList<Tuple>             nogroupby_tuples;
+    private Map<Field, AggregateState> groupby_states;
+    private AggregateState             nogroupby_state;
     private boolean groupby = false;
     private String    groupName;
     private TupleDesc td;
@@ -45,8 +44,8 @@ class IntegerAggregator implements Aggregator
         this.afield = afield;
         this.op = what;
 
-        this.groupby_tuples = new HashMap<Field, ArrayList<Tuple>>();
-        this.nogroupby_tuples = new ArrayList<Tuple>();
+        this.groupby_states = new HashMap<Field, AggregateState>();
+        this.nogroupby_state = new AggregateState();
         this.groupName = null;
         this.td = null;
         if (gbfield != Aggregator.NO_GROUPING)
@@ -55,7 +54,8 @@ class IntegerAggregator implements Aggregator
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
+     * constructor. Only the running state of the tuple's group is updated,
+     * the tuple itself is not kept.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
@@ -66,20 +66,46 @@ class IntegerAggregator implements Aggregator
         setGroupName(tup);
         setTD(tup);
 
+        AggregateState state = nogroupby_state;
         if (groupby)
         {
             Field groupby_value = tup.getField(gbfield);
 
-            if (!groupby_tuples.containsKey(groupby_value))
+            state = groupby_states.get(groupby_value);
+            if (state == null)
             {
-                groupby_tuples.put(groupby_value, new ArrayList<Tuple>());
+                state = new AggregateState();
+                groupby_states.put(groupby_value, state);
             }
-            groupby_tuples.get(groupby_value).add(tup);
         }
+
+        // COUNT reads no value, Aggregate also uses it over string fields
+        if (op == Op.COUNT)
+        { state.addRow(); }
         else
-        {
-            nogroupby_tuples.add(tup);
-        }
+        { state.add(((IntField) tup.getField(afield)).getValue()); }
+    }
+
+    /**
+     * @return the number of groups merged so far
+     */
+    public
+    int numGroups()
+    {
+        if (groupby)
+        { return groupby_states.size(); }
+        return nogroupby_state.count > 0 ? 1 : 0;
+    }
+
+    /**
+     * @return true if the group of tup has been merged already
+     */
+    public
+    boolean hasGroup(Tuple tup)
+    {
+        if (groupby)
+        { return groupby_states.containsKey(tup.getField(gbfield)); }
+        return nogroupby_state.count > 0;
     }
 
     /**
@@ -175,7 +201,7 @@ class IntegerAggregator implements Aggregator
             {
                 if (nogroupby_access_count > 0)
                 {
-                    next_tuple = getGroupByTuple(null, nogroupby_tuples);
+                    next_tuple = getGroupByTuple(null, nogroupby_state);
                     nogroupby_access_count = 0;
                 }
             }
@@ -185,8 +211,8 @@ class IntegerAggregator implements Aggregator
         /**
          * helper function to return next tuple with aggregate value
          *
-         * @param groupby_field
-         * @param tuples
+         * @param f the group-by field, null if there is no grouping
+         * @param t the AggregateState of the group
          * @return
          */
         private
@@ -198,59 +224,9 @@ class IntegerAggregator implements Aggregator
                 groupby_field = (Field) f;
             }
 
-            ArrayList<Tuple> tuples = (ArrayList<Tuple>) t;
-
             Tuple new_tuple = null;
 
-            int aggregate_value = 0;
-            int i, min, max, sum, count;
-            switch (op)
-            {
-                case MIN:
-//                    System.out.format("MIN .....\n");
-                    min = ((IntField)tuples.get(0).getField(afield)).getValue();
-                    for (i = 1; i < tuples.size(); i++)
-                    {
-                        if (((IntField)tuples.get(i).getField(afield)).getValue() < min)
-                        { min = ((IntField)tuples.get(i).getField(afield)).getValue(); }
-                    }
-                    aggregate_value = min;
-                    break;
-                case MAX:
-//                    System.out.format("MAX .....\n");
-                    max = ((IntField)tuples.get(0).getField(afield)).getValue();
-                    for (i = 1; i < tuples.size(); i++)
-                    {
-                        if (((IntField)tuples.get(i).getField(afield)).getValue() > max)
-                        { max = ((IntField)tuples.get(i).getField(afield)).getValue(); }
-                    }
-                    aggregate_value = max;
-                    break;
-                case SUM:
-//                    System.out.format("SUM .....\n");
-                    sum = ((IntField)tuples.get(0).getField(afield)).getValue();
-                    for (i = 1; i < tuples.size(); i++)
-                    {
-                        sum += ((IntField)tuples.get(i).getField(afield)).getValue();
-                    }
-                    aggregate_value = sum;
-                    break;
-                case AVG:
-//                    System.out.format("AVG .....\n");
-                    sum = ((IntField)tuples.get(0).getField(afield)).getValue();
-                    count = tuples.size();
-                    for (i = 1; i < tuples.size(); i++)
-                    {
-                        sum += ((IntField)tuples.get(i).getField(afield)).getValue();
-                    }
-                    aggregate_value = sum / count;
-                    break;
-                case COUNT:
-//                    System.out.format("COUNT .....\n");
-                    count = tuples.size();
-                    aggregate_value = count;
-                    break;
-            }
+            int aggregate_value = ((AggregateState) t).result(op);
 
             if (groupby)
             {
@@ -318,7 +294,7 @@ class IntegerAggregator implements Aggregator
 
             if (groupby)
             {
-                it = groupby_tuples.entrySet().iterator();
+                it = groupby_states.entrySet().iterator();
             }
             nogroupby_access_count = 1;
         }
@@ -354,7 +330,7 @@ class IntegerAggregator implements Aggregator
         {
             if (groupby)
             {
-                it = groupby_tuples.entrySet().iterator();
+                it = groupby_states.entrySet().iterator();
             }
             nogroupby_access_count = 1;
         }
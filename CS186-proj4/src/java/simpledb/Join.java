@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ *
+ * Equality joins are hybrid hash joins, see HybridHashJoin, with hash
+ * tables over child1 held to a memory budget. Other joins are nested loops
+ * joins.
  */
 public
 class Join extends Operator
@@ -11,6 +15,12 @@ class Join extends Operator
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * default memory budget of the hash tables of an equality join in
+     * bytes, from simpledb.Join.memoryBudget if set
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Long.getLong("simpledb.Join.memoryBudget", 64L << 20);
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
@@ -18,8 +28,8 @@ class Join extends Operator
     private int field2;
     private Tuple t1 = null;
     private Tuple t2 = null;
-    private HashMap<Field, ArrayList<Tuple>> hashJoin;
-    private Iterator it = null;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private HybridHashJoin hashJoin; // of an equality join, null if not open
 
 
     /**
@@ -39,7 +49,36 @@ class Join extends Operator
         this.field2 = p.getField2();
         this.child1 = child1;
         this.child2 = child2;
-        hashJoin = new HashMap<Field, ArrayList<Tuple>>();
+    }
+
+    /**
+     * Set the memory budget of the hash tables of an equality join, past
+     * which the inputs are partitioned to disk. Takes effect on open().
+     *
+     * @param bytes the budget in bytes
+     */
+    public
+    void setMemoryBudget(long bytes)
+    {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * @return the memory budget of the hash tables of an equality join
+     */
+    public
+    long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions of child1 an open equality join
+     * spilled to disk, 0 if child1 fit the memory budget
+     */
+    int numSpilled()
+    {
+        return hashJoin == null ? 0 : hashJoin.numSpilled();
     }
 
     public
@@ -92,19 +131,25 @@ class Join extends Operator
         super.open();
         child1.open();
         child2.open();
+        openHashJoin();
+    }
 
-        // add child1 tuples to hashmap
-        while (child1.hasNext())
+    /**
+     * build the hash tables of an equality join over the open child1
+     */
+    private
+    void openHashJoin() throws DbException, TransactionAbortedException
+    {
+        if (hashJoin != null)
         {
-            Tuple next_tuple = child1.next();
-            Field field = next_tuple.getField(field1);
-            if (!hashJoin.containsKey(field))
-            {
-                hashJoin.put(field, new ArrayList<Tuple>());
-            }
-            hashJoin.get(field).add(next_tuple);
+            hashJoin.close();
+            hashJoin = null;
+        }
+        if (p.getOperator() == Predicate.Op.EQUALS)
+        {
+            hashJoin = new HybridHashJoin(child1, field1, child2, field2, getTupleDesc(), memoryBudget);
+            hashJoin.open();
         }
-        child1.rewind();
     }
 
     public
@@ -112,6 +157,11 @@ class Join extends Operator
     {
         // some code goes here
         super.close();
+        if (hashJoin != null)
+        {
+            hashJoin.close();
+            hashJoin = null;
+        }
         child1.close();
         child2.close();
     }
@@ -124,7 +174,7 @@ class Join extends Operator
         child2.rewind();
         t1 = null;
         t2 = null;
-        it = null;
+        openHashJoin();
     }
 
     /**
@@ -133,13 +183,9 @@ class Join extends Operator
      * satisfies the join predicate. There are many possible implementations;
      * the simplest is a nested loops join.
      *
-     * Change this to hash join later to improve performance. There are
-     * two steps:
-     * 1. partition all tuples to k blocks (hash % k) (since this project will
-     * not have number of tuples exceeds memory, no partition is required,
-     * only need to read in all tuples from a table once)
-     * 2. for each partition in R, create hash table of size N (N tuples),
-     * and join S tuples within the same partitioin
+     * Equality joins are hash joins instead, which return the joined tuples
+     * of child1 tuples in memory as child2 is read, then those of the
+     * partitions spilled to disk.
      *
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -165,7 +211,7 @@ class Join extends Operator
         }
         else
         {
-            new_tuple = hashJoin();
+            new_tuple = hashJoin.next();
         }
 
         return new_tuple;
@@ -216,42 +262,6 @@ class Join extends Operator
         return new_tuple;
     }
 
-    /**
-     * helper function to use hash join for join in fetchNext
-     * @return
-     * @throws TransactionAbortedException
-     * @throws DbException
-     */
-    protected
-    Tuple hashJoin() throws TransactionAbortedException, DbException
-    {
-//        System.out.format("hashJoin -----------\n");
-        Tuple new_tuple = null;
-
-        while (it != null && it.hasNext())
-        {
-            new_tuple = joinTwoTuples((Tuple)it.next(), t2);
-            return new_tuple;
-        }
-
-        while (child2.hasNext())
-        {
-            t2 = child2.next();
-            Field field = t2.getField(field2);
-            if (hashJoin.containsKey(field))
-            {
-                ArrayList<Tuple> tmp_tuples =  hashJoin.get(field);
-                it = tmp_tuples.iterator();
-                new_tuple = joinTwoTuples((Tuple)it.next(), t2);
-//                System.out.format("joined tuple: %s\n", new_tuple.toString());
-                return new_tuple;
-            }
-        }
-
-        return new_tuple;
-    }
-
-
     /**
      * helper function to join two tuples and return a new tuple
      * @param t1
@@ -320,6 +320,9 @@ class JoinOptimizer
         }
 
         Vector<LogicalJoinNode> temp_res = pc.getOrder(joinSet);
+        // a query over one table has no joins to order
+        if (joins.isEmpty())
+        { temp_res = joins; }
         if (temp_res == null)
         {
             System.out.format("temp_res is null!!\n");
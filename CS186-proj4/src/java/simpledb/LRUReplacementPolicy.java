@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * LRU replacement policy.
+ * <p>
+ * The LRU cache is a hash table of keys and double linked nodes.
+ * The hash table makes lookup O(1), and the list of double linked nodes
+ * makes moving a node to the head and removing a node O(1).
+ * The head is the most recently used page, the tail the least recently used.
+ * <p>
+ * evict() walks from the tail and skips pages rejected by the filter, so it
+ * is O(1) unless many recently unused pages are pinned by NO-STEAL.
+ */
+public
+class LRUReplacementPolicy implements ReplacementPolicy
+{
+    /**
+     * double linked node of the lru list
+     */
+    private static
+    class Node
+    {
+        PageId pid;
+        Node   prev;
+        Node   next;
+
+        Node(PageId pid)
+        {
+            this.pid = pid;
+        }
+    }
+
+    private HashMap<PageId, Node> nodes; // hashmap for <pageid, node> in lru list
+    private Node                  head; // sentinel, head.next is the most recently used
+    private Node                  tail; // sentinel, tail.prev is the least recently used
+
+    public
+    LRUReplacementPolicy()
+    {
+        nodes = new HashMap<PageId, Node>();
+        head = new Node(null);
+        tail = new Node(null);
+        head.next = tail;
+        tail.prev = head;
+    }
+
+    public synchronized
+    void admit(PageId pid)
+    {
+        Node node = nodes.get(pid);
+        if (node == null)
+        {
+            node = new Node(pid);
+            nodes.put(pid, node);
+        }
+        else
+        { unlink(node); }
+        pushFront(node);
+    }
+
+    public synchronized
+    void access(PageId pid)
+    {
+        Node node = nodes.get(pid);
+        if (node == null)
+        { return; }
+        unlink(node);
+        pushFront(node);
+    }
+
+    public synchronized
+    void remove(PageId pid)
+    {
+        Node node = nodes.remove(pid);
+        if (node != null)
+        { unlink(node); }
+    }
+
+    public synchronized
+    PageId evict(Evictable filter)
+    {
+        // walk from least recently used to most recently used
+        for (Node node = tail.prev; node != head; node = node.prev)
+        {
+            if (filter.canEvict(node.pid))
+            {
+                unlink(node);
+                nodes.remove(node.pid);
+                return node.pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the victim goes back to the least recently used end, where evict()
+     * found it
+     */
+    public synchronized
+    void restore(PageId pid)
+    {
+        if (nodes.containsKey(pid))
+        { return; }
+        Node node = new Node(pid);
+        nodes.put(pid, node);
+        node.prev = tail.prev;
+        node.next = tail;
+        tail.prev.next = node;
+        tail.prev = node;
+    }
+
+    public synchronized
+    int size()
+    {
+        return nodes.size();
+    }
+
+    public
+    ReplacementPolicy newInstance(int numPages)
+    {
+        return new LRUReplacementPolicy();
+    }
+
+    /**
+     * insert node right after the head sentinel
+     */
+    private
+    void pushFront(Node node)
+    {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    /**
+     * take node out of the list
+     */
+    private
+    void unlink(Node node)
+    {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements a relational LIMIT: it returns the
+ * first tuples of its child, and stops pulling from the child once it has
+ * returned them.
+ */
+public
+class Limit extends Operator
+{
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int        limit;
+    private int        returned; // tuples returned since open or rewind
+
+    /**
+     * Constructor.
+     *
+     * @param limit the number of tuples to return at most
+     * @param child the tuples to limit
+     */
+    public
+    Limit(int limit, DbIterator child)
+    {
+        if (limit < 0)
+        { throw new IllegalArgumentException("negative limit " + limit); }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples returned at most
+     */
+    public
+    int getLimit()
+    {
+        return limit;
+    }
+
+    public
+    TupleDesc getTupleDesc()
+    {
+        return child.getTupleDesc();
+    }
+
+    public
+    void open() throws DbException, NoSuchElementException,
+                       TransactionAbortedException
+    {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public
+    void close()
+    {
+        super.close();
+        child.close();
+    }
+
+    public
+    void rewind() throws DbException, TransactionAbortedException
+    {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child until
+     * limit tuples have been returned
+     *
+     * @return The next tuple, or null if limit tuples have been returned or
+     * the child has no more
+     */
+    protected
+    Tuple fetchNext() throws NoSuchElementException,
+                             TransactionAbortedException, DbException
+    {
+        if (returned < limit && child.hasNext())
+        {
+            returned++;
+            return child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public
+    DbIterator[] getChildren()
+    {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public
+    void setChildren(DbIterator[] children)
+    {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * LogBuffer collects the records LogFile appends in a reusable direct
+ * buffer, and writes them to the end of the log file in one positional
+ * write when it is flushed or full, instead of one write call per field.
+ * <p>
+ * It is not thread safe; LogFile uses it under its own lock.
+ */
+class LogBuffer implements DataOutput
+{
+    /**
+     * Default num of bytes buffered before a write.
+     */
+    public static final int DEFAULT_SIZE = 1 << 18;
+
+    private final ByteBuffer              buffer;
+    private final HashMap<String, byte[]> utf; // encoded class names, the same few are written over and over
+    private FileChannel                   channel;
+    private long                          start; // file offset of the first buffered byte
+    private long                          writes; // num of write calls made to the channel
+
+    /**
+     * @param channel the log file
+     * @param offset  file offset the first record goes to
+     * @param size    num of bytes to buffer
+     */
+    LogBuffer(FileChannel channel, long offset, int size)
+    {
+        this.buffer = ByteBuffer.allocateDirect(size);
+        this.utf = new HashMap<String, byte[]>();
+        reset(channel, offset);
+    }
+
+    /**
+     * Drop what is buffered and append to channel at offset from now on,
+     * after the log file was truncated or replaced.
+     */
+    void reset(FileChannel channel, long offset)
+    {
+        this.channel = channel;
+        this.start = offset;
+        buffer.clear();
+    }
+
+    /**
+     * @return file offset the next byte goes to
+     */
+    long position()
+    {
+        return start + buffer.position();
+    }
+
+    /**
+     * write what is buffered to the file, without forcing it to disk
+     */
+    void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            start += channel.write(buffer, start);
+            writes++;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return num of write calls made to the file
+     */
+    long getWriteCount()
+    {
+        return writes;
+    }
+
+    /**
+     * make room for n more bytes
+     */
+    private
+    void reserve(int n) throws IOException
+    {
+        if (buffer.remaining() < n)
+        { flush(); }
+    }
+
+    public
+    void write(int b) throws IOException
+    {
+        reserve(1);
+        buffer.put((byte) b);
+    }
+
+    public
+    void write(byte[] b) throws IOException
+    {
+        write(b, 0, b.length);
+    }
+
+    public
+    void write(byte[] b, int off, int len) throws IOException
+    {
+        if (len <= buffer.capacity())
+        {
+            reserve(len);
+            buffer.put(b, off, len);
+            return;
+        }
+        // larger than the buffer, write it through
+        flush();
+        ByteBuffer wrapped = ByteBuffer.wrap(b, off, len);
+        while (wrapped.hasRemaining())
+        {
+            start += channel.write(wrapped, start);
+            writes++;
+        }
+    }
+
+    public
+    void writeBoolean(boolean v) throws IOException
+    {
+        write(v ? 1 : 0);
+    }
+
+    public
+    void writeByte(int v) throws IOException
+    {
+        write(v);
+    }
+
+    public
+    void writeShort(int v) throws IOException
+    {
+        reserve(2);
+        buffer.putShort((short) v);
+    }
+
+    public
+    void writeChar(int v) throws IOException
+    {
+        reserve(2);
+        buffer.putChar((char) v);
+    }
+
+    public
+    void writeInt(int v) throws IOException
+    {
+        reserve(4);
+        buffer.putInt(v);
+    }
+
+    public
+    void writeLong(long v) throws IOException
+    {
+        reserve(8);
+        buffer.putLong(v);
+    }
+
+    public
+    void writeFloat(float v) throws IOException
+    {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public
+    void writeDouble(double v) throws IOException
+    {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public
+    void writeBytes(String s) throws IOException
+    {
+        for (int i = 0; i < s.length(); i++)
+        { write(s.charAt(i)); }
+    }
+
+    public
+    void writeChars(String s) throws IOException
+    {
+        for (int i = 0; i < s.length(); i++)
+        { writeChar(s.charAt(i)); }
+    }
+
+    /**
+     * same format as DataOutputStream.writeUTF, i.e. what
+     * RandomAccessFile.readUTF reads back
+     */
+    public
+    void writeUTF(String s) throws IOException
+    {
+        byte[] encoded = utf.get(s);
+        if (encoded == null)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(s);
+            encoded = bytes.toByteArray();
+            if (utf.size() < 64)
+            { utf.put(s, encoded); }
+        }
+        write(encoded);
+    }
+}
@@ -3,6 +3,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
 
 /**
@@ -32,6 +35,30 @@ import java.lang.reflect.*;
  * }
  * }
  * </pre>
+ * <p>
+ * <u> Group commit: </u>
+ * <p>
+ * force() does not hold the lock on this while it waits for the disk.
+ * Committers append their COMMIT record under the lock, then wait for a
+ * force covering it; the first one becomes the leader and forces for
+ * everybody who appended so far, the others wait for it. The leader may
+ * wait up to groupCommitMicros for more committers, but no longer than it
+ * takes groupCommitBatch of them to show up, see setGroupCommit().
+ * <p>
+ * <u> Checkpoints: </u>
+ * <p>
+ * Checkpoints are fuzzy: they write the active transactions and the dirty
+ * page table to the log without writing any page or stopping anybody.
+ * The dirty page table holds each page with an update logged since it was
+ * last written by the PageWriter, and the offset of the first such update
+ * (its recLSN); recovery redoes from there. A background thread takes a
+ * checkpoint every checkpointMillis when something was logged since the
+ * last one, and truncates the log after it, see setCheckpointInterval().
+ * <p>
+ * Records are not written field by field to the file: they are collected
+ * in a LogBuffer, which appends them in one write when the log is forced,
+ * when it is full, or before the log is read back. raf is only used to
+ * read the log.
  */
 
 /**
@@ -51,21 +78,30 @@ import java.lang.reflect.*;
  * <li> Each log record ends with a long integer file offset representing
  * the position in the log file where the record began.
  * <p>
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+ * and CHECKPOINT
  * <p>
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  * <p>
  * <li>UPDATE RECORDS consist of two entries, a before image and an
  * after image.  These images are serialized Page objects, and can be
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * methods.  See LogFile.print() for an example. The page and page id
+ * classes are written as the type codes of PageRegistry; logs that name
+ * them by class name are still read.
+ * <p>
+ * <li>DELTA RECORDS log an update of a HeapPage by the slots it changed,
+ * with the tuple bytes before and after the update, see HeapPageDelta.
+ * They replace UPDATE records for HeapPages, unless full page images are
+ * asked for, see setFullPageImages().
  * <p>
  * <li> CHECKPOINT records consist of active transactions at the time
  * the checkpoint was taken and their first log record on disk.  The format
  * of the record is an integer count of the number of transactions, as well
  * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * for each active transaction. It is followed by the dirty page table: an
+ * integer count of pages, then for each page its table id and page number
+ * as integers and the long integer offset of its recLSN.
  * <p>
  * </ul>
  */
@@ -76,6 +112,7 @@ class LogFile
 
     File             logFile;
     RandomAccessFile raf;
+    LogBuffer        out; // records not written to raf yet
     Boolean          recoveryUndecided; // no call to recover() and no append to log
 
     static final int  ABORT_RECORD      = 1;
@@ -83,16 +120,48 @@ class LogFile
     static final int  UPDATE_RECORD     = 3;
     static final int  BEGIN_RECORD      = 4;
     static final int  CHECKPOINT_RECORD = 5;
+    static final int  DELTA_RECORD      = 6;
     static final long NO_CHECKPOINT_ID  = -1;
 
+    // first short of a class entry of page data: a PageRegistry type code
+    // follows in the low bits, rather than the UTF length of a class name
+    static final int TYPE_CODE_FLAG = 0x8000;
+
     static int INT_SIZE  = 4;
     static int LONG_SIZE = 8;
 
-    long currentOffset = -1;
+    volatile long currentOffset = -1;
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
-    HashMap<Long, Long> tidToFirstLogRecord = new HashMap<Long, Long>();
+    // group commit, see force()
+    private final Object  group = new Object(); // guards durable, forcing, syncing and waiting
+    private volatile long truncated; // bytes dropped from the head of the log, so truncated + offset never goes back
+    private long          durable; // truncated + offset known to be on disk
+    private boolean       forcing; // a leader is forcing the log
+    private boolean       syncing; // the leader has written out the buffer, and waits for the disk
+    private int           waiting; // threads waiting for a force
+    private volatile long groupCommitMicros = 0;
+    private volatile int  groupCommitBatch  = 64;
+    private final java.util.concurrent.atomic.AtomicLong forces = new java.util.concurrent.atomic.AtomicLong();
+
+    // full page images, see setFullPageImages()
+    private volatile boolean fullPageImages = Boolean.getBoolean("simpledb.LogFile.fullPageImages");
+    private final HashSet<PageId> imaged = new HashSet<PageId>(); // pages logged in full since the last checkpoint
+
+    // fuzzy checkpoints, see logCheckpoint()
+    private final HashMap<PageId, DirtyPage> dirtyPages = new HashMap<PageId, DirtyPage>(); // guarded by itself
+    private final java.util.concurrent.atomic.AtomicLong updates = new java.util.concurrent.atomic.AtomicLong(); // num of updates logged
+    private volatile long    checkpointMillis = Long.getLong("simpledb.LogFile.checkpointMillis", 30 * 1000);
+    private volatile long    lastCheckpoint; // System.currentTimeMillis() of the last checkpoint
+    private volatile long    checkpointEnd; // truncated + offset after the last checkpoint
+    private volatile long    checkpoints;
+    private volatile boolean closed;
+    private boolean          truncating; // a logTruncate() is copying the log, guarded by this
+    private int              rewrites; // times recover() or shutdown() rewrote or closed the log, guarded by this
+
+    // read without the lock by isActive()
+    ConcurrentHashMap<Long, Long> tidToFirstLogRecord = new ConcurrentHashMap<Long, Long>();
 
     /**
      * Constructor.
@@ -111,7 +180,13 @@ class LogFile
     {
         this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        out = new LogBuffer(raf.getChannel(), raf.length(), LogBuffer.DEFAULT_SIZE);
         recoveryUndecided = true;
+        lastCheckpoint = System.currentTimeMillis();
+
+        Thread checkpointer = new Thread(new Checkpointer(this), "Checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -133,11 +208,10 @@ class LogFile
         if (recoveryUndecided)
         {
             recoveryUndecided = false;
-            raf.seek(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            out.reset(raf.getChannel(), 0);
+            out.writeLong(NO_CHECKPOINT_ID);
+            currentOffset = out.position();
         }
     }
 
@@ -147,6 +221,15 @@ class LogFile
         return totalRecords;
     }
 
+    /**
+     * @return true if tid has begun and has not committed or aborted yet
+     */
+    public
+    boolean isActive(TransactionId tid)
+    {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /**
      * Write an abort record to the log for the specified tid, force
      * the log to disk, and perform a rollback
@@ -161,6 +244,10 @@ class LogFile
 
         synchronized (Database.getBufferPool())
         {
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord). It is done
+            // before taking the lock on this, see rollback()
+            rollback(tid);
 
             synchronized (this)
             {
@@ -168,14 +255,10 @@ class LogFile
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = out.position();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -188,24 +271,34 @@ class LogFile
      *
      * @param tid The committing transaction.
      */
-    public synchronized
+    public
     void logCommit(TransactionId tid) throws IOException
     {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        long end;
+        synchronized (this)
+        {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = out.position();
+            end = truncated + currentOffset;
+        }
+        // without the lock, so others can append to the same force
+        forceUpTo(end);
         tidToFirstLogRecord.remove(tid.getId());
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
      * (with provided         before and after images.)
+     * <p>
+     * An update of a HeapPage is logged as a DELTA record holding only the
+     * slots that changed; with full page images on, the first update of a
+     * page after a checkpoint is still logged in full.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
@@ -219,71 +312,202 @@ class LogFile
                  )
     throws IOException
     {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        long start = currentOffset;
+        if (before instanceof HeapPage && after instanceof HeapPage
+            && !(fullPageImages && imaged.add(after.getId())))
+        {
+            /* delta record consists of
+
+               record type
+               transaction id
+               changed slots (see HeapPageDelta.write)
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            HeapPageDelta.diff((HeapPage) before, (HeapPage) after).write(out);
+        }
+        else
+        {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out, before);
+            writePageData(out, after);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = out.position();
+
+        long update = updates.incrementAndGet();
+        synchronized (dirtyPages)
+        {
+            DirtyPage dirty = dirtyPages.get(after.getId());
+            if (dirty == null)
+            {
+                dirty = new DirtyPage(truncated + start);
+                dirtyPages.put(after.getId(), dirty);
+            }
+            dirty.lastUpdate = update;
+        }
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException
+    /**
+     * A page of the dirty page table.
+     */
+    private static
+    class DirtyPage
+    {
+        final long recLSN; // truncated + offset of the first update since the page was written
+        long       lastUpdate; // value of updates after its last update
+
+        DirtyPage(long recLSN)
+        {
+            this.recLSN = recLSN;
+        }
+    }
+
+    /**
+     * Call before writing a page to disk, and pass the result to
+     * pageWritten() once it is written.
+     *
+     * @return a mark ordering the write after the updates logged so far
+     */
+    public
+    long beginPageWrite()
+    {
+        return updates.get();
+    }
+
+    /**
+     * The page was written to disk, with all updates logged before mark,
+     * so redo does not need them any more. It leaves the dirty page table
+     * unless it was updated again meanwhile.
+     *
+     * @param mark what beginPageWrite() returned before the write
+     */
+    public
+    void pageWritten(PageId pid, long mark)
+    {
+        synchronized (dirtyPages)
+        {
+            DirtyPage dirty = dirtyPages.get(pid);
+            if (dirty != null && dirty.lastUpdate <= mark)
+            { dirtyPages.remove(pid); }
+        }
+    }
+
+    void writePageData(DataOutput dout, Page p) throws IOException
     {
         PageId pid        = p.getId();
         int    pageInfo[] = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
+        // page class code or name
+        // id class code or name
         // id class bytes
         // id class data
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName   = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writeType(dout, PageRegistry.pageCode(p.getClass()), p.getClass());
+        writeType(dout, PageRegistry.pageIdCode(pid.getClass()), pid.getClass());
 
-        raf.writeInt(pageInfo.length);
+        dout.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++)
         {
-            raf.writeInt(pageInfo[i]);
+            dout.writeInt(pageInfo[i]);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        dout.writeInt(pageData.length);
+        dout.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page
         // = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException
+    /**
+     * write a class entry of page data: its type code if it has one, else
+     * its name
+     */
+    private
+    void writeType(DataOutput dout, int code, Class<?> c) throws IOException
     {
-        PageId pid;
-        Page   newPage = null;
+        if (code > 0)
+        { dout.writeShort(TYPE_CODE_FLAG | code); }
+        else
+        { dout.writeUTF(c.getName()); }
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName   = raf.readUTF();
+    /**
+     * read a class entry written by writeType()
+     *
+     * @return the type code, or 0 if the class is named, the name is then
+     * left to read with readUTF()
+     */
+    private
+    int readTypeCode(RandomAccessFile raf) throws IOException
+    {
+        int head = raf.readUnsignedShort();
+        if ((head & TYPE_CODE_FLAG) != 0)
+        { return head & ~TYPE_CODE_FLAG; }
+        raf.seek(raf.getFilePointer() - 2);
+        return 0;
+    }
 
-        try
+    /**
+     * skip a class entry written by writeType()
+     */
+    private
+    void skipType(RandomAccessFile raf) throws IOException
+    {
+        int head = raf.readUnsignedShort();
+        if ((head & TYPE_CODE_FLAG) == 0)
+        { raf.skipBytes(head); }
+    }
+
+    /**
+     * skip page data written by writePageData without building the page
+     */
+    void skipPageData(RandomAccessFile raf) throws IOException
+    {
+        skipType(raf);
+        skipType(raf);
+        raf.skipBytes(raf.readInt() * INT_SIZE);
+        raf.skipBytes(raf.readInt());
+    }
+
+    /**
+     * read the page id of page data written by writePageData, the page
+     * class has been read already
+     */
+    PageId readPageId(RandomAccessFile raf) throws IOException
+    {
+        int code = readTypeCode(raf);
+        if (code != 0)
         {
-            Class<?> idClass   = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+            PageRegistry.PageIdFactory factory = PageRegistry.pageIdFactory(code);
+            int[]                      idArgs  = new int[raf.readInt()];
+            for (int i = 0; i < idArgs.length; i++)
+            { idArgs[i] = raf.readInt(); }
+            return factory.create(idArgs);
+        }
 
+        // named class, from a log written before type codes
+        String idClassName = raf.readUTF();
+        try
+        {
+            Class<?>         idClass   = Class.forName(idClassName);
             Constructor<?>[] idConsts  = idClass.getDeclaredConstructors();
             int              numIdArgs = raf.readInt();
             Object           idArgs[]  = new Object[numIdArgs];
@@ -291,19 +515,72 @@ class LogFile
             {
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+            return (PageId) idConsts[0].newInstance(idArgs);
+        }
+        catch (ClassNotFoundException e)
+        {
+            e.printStackTrace();
+            throw new IOException();
+        }
+        catch (InstantiationException e)
+        {
+            e.printStackTrace();
+            throw new IOException();
+        }
+        catch (IllegalAccessException e)
+        {
+            e.printStackTrace();
+            throw new IOException();
+        }
+        catch (InvocationTargetException e)
+        {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    Page readPageData(RandomAccessFile raf) throws IOException
+    {
+        PageId pid;
+        Page   newPage = null;
+
+        int code = readTypeCode(raf);
+        if (code != 0)
+        {
+            PageRegistry.PageFactory factory = PageRegistry.pageFactory(code);
+            pid = readPageId(raf);
+            byte[] pageData = new byte[raf.readInt()];
+            raf.readFully(pageData);
+            return factory.create(pid, pageData);
+        }
+
+        // named class, from a log written before type codes
+        String pageClassName = raf.readUTF();
+        pid = readPageId(raf);
+
+        try
+        {
+            Class<?> pageClass = Class.forName(pageClassName);
 
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int              pageSize   = raf.readInt();
+            Constructor<?>   pageConst  = pageConsts[0];
+            for (Constructor<?> c : pageConsts)
+            {
+                // pages may have other constructors, use the (PageId, byte[]) one
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                { pageConst = c; }
+            }
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId
             // () + ", page = " + newPage.getId().pageno());
@@ -348,78 +625,141 @@ class LogFile
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
      * Checkpoint the log and write a checkpoint record.
+     * <p>
+     * The checkpoint is fuzzy: it records the active transactions and the
+     * dirty page table, and writes no page. Transactions keep running,
+     * they only wait for the lock on this while the record is appended.
      */
     public
     void logCheckpoint() throws IOException
     {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool())
+        synchronized (this)
         {
-            synchronized (this)
+            //Debug.log("CHECKPOINT, offset = " + currentOffset);
+            preAppend();
+            long                        startCpOffset = out.position();
+            HashMap<Long, Long>         active        = new HashMap<Long, Long>(tidToFirstLogRecord);
+            HashMap<PageId, DirtyPage>  dirty;
+            synchronized (dirtyPages)
+            { dirty = new HashMap<PageId, DirtyPage>(dirtyPages); }
+
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(active.size());
+            for (Map.Entry<Long, Long> e : active.entrySet())
             {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long           startCpOffset, endCpOffset;
-                Set<Long>      keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els  = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext())
-                {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirty.size());
+            for (Map.Entry<PageId, DirtyPage> e : dirty.entrySet())
+            {
+                out.writeInt(e.getKey().getTableId());
+                out.writeInt(e.getKey().pageNumber());
+                out.writeLong(e.getValue().recLSN - truncated);
             }
+            out.writeLong(currentOffset);
+            currentOffset = out.position();
+            force();
+            imaged.clear();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            out.flush();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
+        synchronized (this)
+        {
+            lastCheckpoint = System.currentTimeMillis();
+            checkpointEnd = truncated + currentOffset;
+            checkpoints++;
+        }
+    }
+
+    /**
+     * read what follows the type and tid of a checkpoint record
+     *
+     * @param active     filled with the transactions it lists, by first record
+     * @param dirtyPages filled with its dirty page table, by recLSN
+     */
+    private
+    void readCheckpoint(RandomAccessFile raf, Map<Long, Long> active, Map<PageId, Long> dirtyPages)
+    throws IOException
+    {
+        int numOutstanding = raf.readInt();
+        for (int i = 0; i < numOutstanding; i++)
+        {
+            long tid = raf.readLong();
+            active.put(tid, raf.readLong());
+        }
+        int numDirty = raf.readInt();
+        for (int i = 0; i < numDirty; i++)
+        {
+            HeapPageId pid = new HeapPageId(raf.readInt(), raf.readInt());
+            dirtyPages.put(pid, raf.readLong());
+        }
+    }
+
+    /**
+     * skip what follows the type and tid of a checkpoint record
+     */
+    private
+    void skipCheckpoint(RandomAccessFile raf) throws IOException
+    {
+        raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+        raf.skipBytes(raf.readInt() * (2 * INT_SIZE + LONG_SIZE));
     }
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.
+     * <p>
+     * The records kept are copied to a new file without the lock on this,
+     * so transactions keep logging meanwhile. Only the records appended
+     * during the copy are copied, and the files swapped, under the lock.
+     * A call while another truncation is copying does nothing.
      */
-    public synchronized
+    public
     void logTruncate() throws IOException
     {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc;
+        long minLogRecord;
+        long copyEnd; // the records before are on the file, and copied without the lock
+        int  rewritesAtStart;
+        synchronized (this)
+        {
+            if (truncating)
+            { return; }
+            preAppend();
+            out.flush();
+            raf.seek(0);
+            cpLoc = raf.readLong();
 
-        long minLogRecord = cpLoc;
+            // without a checkpoint nothing is known to be unneeded
+            if (cpLoc == -1L)
+            { return; }
 
-        if (cpLoc != -1L)
-        {
+            minLogRecord = cpLoc;
             raf.seek(cpLoc);
             int cpType = raf.readInt();
             @SuppressWarnings("unused")
@@ -430,91 +770,172 @@ class LogFile
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++)
-            {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord)
-                {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+            // keep the records of the active transactions, and the updates
+            // redo starts from
+            HashMap<Long, Long>   active = new HashMap<Long, Long>();
+            HashMap<PageId, Long> dirty  = new HashMap<PageId, Long>();
+            readCheckpoint(raf, active, dirty);
+            for (long firstLogRecord : active.values())
+            { minLogRecord = Math.min(minLogRecord, firstLogRecord); }
+            for (long recLSN : dirty.values())
+            { minLogRecord = Math.min(minLogRecord, recLSN); }
+
+            if (minLogRecord <= LONG_SIZE)
+            { return; }
+            copyEnd = out.position();
+            rewritesAtStart = rewrites;
+            truncating = true;
         }
 
         // we can truncate everything before minLogRecord
-        File             newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew  = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true)
+        File                newFile     = new File("logtmp" + System.currentTimeMillis());
+        RandomAccessFile    logNewFile  = new RandomAccessFile(newFile, "rw");
+        LogBuffer           logNew      = new LogBuffer(logNewFile.getChannel(), 0, LogBuffer.DEFAULT_SIZE);
+        HashMap<Long, Long> begins      = new HashMap<Long, Long>(); // tid -> new offset of its BEGIN
+        HashMap<Long, Long> checkpoints = new HashMap<Long, Long>(); // old -> new offset of a checkpoint
+        boolean             swapped     = false;
+        try
         {
+            logNew.writeLong(-1L); // checkpoint pointer, set before the swap
+            RandomAccessFile old = new RandomAccessFile(logFile, "r");
             try
             {
-                int  type       = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart   = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
+                copyRecords(old, minLogRecord, copyEnd, logNew, minLogRecord, begins, checkpoints);
+            }
+            finally
+            {
+                old.close();
+            }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+            synchronized (this)
+            {
+                // recovered or shut down meanwhile, the copy is no good
+                if (rewrites != rewritesAtStart)
+                { return; }
 
-                switch (type)
-                {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
+                out.flush();
+                copyRecords(raf, copyEnd, out.position(), logNew, minLogRecord, begins, checkpoints);
+                raf.seek(0);
+                long cpNow = raf.readLong(); // a checkpoint may have been taken meanwhile
 
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0)
-                        {
-                            long xid     = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
-                }
+                Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord
+                          + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+                logNew.flush();
+                logNewFile.seek(0);
+                logNewFile.writeLong(checkpoints.get(cpNow));
 
+                // no leader may force the old file while it is swapped; a new one
+                // cannot start syncing, it needs the lock on this
+                synchronized (group)
+                {
+                    awaitSync();
+                }
+                logNewFile.getChannel().force(true);
+                truncated += raf.length() - logNewFile.length();
+                logNewFile.close();
+                raf.close();
+                logFile.delete();
+                newFile.renameTo(logFile);
+                raf = new RandomAccessFile(logFile, "rw");
+                out.reset(raf.getChannel(), raf.length());
+                newFile.delete();
+                swapped = true;
+
+                // only transactions still running: a committed one must not
+                // come back as active
+                for (Map.Entry<Long, Long> e : begins.entrySet())
+                { tidToFirstLogRecord.replace(e.getKey(), e.getValue()); }
+
+                currentOffset = out.position();
+                synchronized (group)
+                {
+                    durable = truncated + currentOffset;
+                    group.notifyAll();
+                }
             }
-            catch (EOFException e)
+            //print();
+        }
+        finally
+        {
+            if (!swapped)
             {
-                break;
+                logNewFile.close();
+                newFile.delete();
             }
+            synchronized (this)
+            { truncating = false; }
         }
+    }
+
+    /**
+     * Copy the records of src in [from, end) to the end of dst, rewriting
+     * the offsets they hold for a log that starts at minLogRecord
+     *
+     * @param begins      filled with the new offset of each BEGIN record, by tid
+     * @param checkpoints filled with the new offset of each checkpoint record,
+     *                    by its old offset
+     */
+    private
+    void copyRecords(RandomAccessFile src, long from, long end, LogBuffer dst, long minLogRecord,
+                     Map<Long, Long> begins, Map<Long, Long> checkpoints) throws IOException
+    {
+        src.seek(from);
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (
-                raf.length() - minLogRecord
-        ));
+        //have to rewrite log records since offsets are different after truncation
+        while (src.getFilePointer() < end)
+        {
+            long oldStart   = src.getFilePointer();
+            int  type       = src.readInt();
+            long record_tid = src.readLong();
+            long newStart   = dst.position();
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+            Debug.log("NEW START = " + newStart);
 
-        currentOffset = raf.getFilePointer();
-        //print();
+            dst.writeInt(type);
+            dst.writeLong(record_tid);
+
+            switch (type)
+            {
+                case UPDATE_RECORD:
+                    Page before = readPageData(src);
+                    Page after = readPageData(src);
+
+                    writePageData(dst, before);
+                    writePageData(dst, after);
+                    break;
+                case DELTA_RECORD:
+                    HeapPageDelta.read(src).write(dst);
+                    break;
+                case CHECKPOINT_RECORD:
+                    checkpoints.put(oldStart, newStart);
+                    int numXactions = src.readInt();
+                    dst.writeInt(numXactions);
+                    while (numXactions-- > 0)
+                    {
+                        long xid     = src.readLong();
+                        long xoffset = src.readLong();
+                        dst.writeLong(xid);
+                        dst.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    }
+                    int numDirty = src.readInt();
+                    dst.writeInt(numDirty);
+                    while (numDirty-- > 0)
+                    {
+                        dst.writeInt(src.readInt());
+                        dst.writeInt(src.readInt());
+                        dst.writeLong((src.readLong() - minLogRecord) + LONG_SIZE);
+                    }
+                    break;
+                case BEGIN_RECORD:
+                    begins.put(record_tid, newStart);
+                    break;
+            }
+
+            //all xactions finish with a pointer
+            dst.writeLong(newStart);
+            src.readLong();
+        }
     }
 
     /**
@@ -532,12 +953,102 @@ class LogFile
     {
         synchronized (Database.getBufferPool())
         {
+            Map<PageId, Page> before;
             synchronized (this)
             {
                 preAppend();
                 // some code goes here
+                out.flush();
+                before = beforeImages(tid);
+            }
+
+            // the pool logs while it evicts, holding its own locks, so
+            // pages are written and discarded without the lock on this
+            for (Page page : before.values())
+            {
+                Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
+                Database.getBufferPool().discardPage(page.getId());
+            }
+        }
+    }
+
+    /**
+     * Find the pages tid updated in the log, as they were before tid
+     * changed them: its updates are taken back latest first, a full before
+     * image replacing the page, a delta applied to the page as it is on
+     * disk or as an earlier step left it. Caller holds the lock on this.
+     */
+    private
+    Map<PageId, Page> beforeImages(TransactionId tid) throws IOException
+    {
+        HashMap<PageId, Page> before = new HashMap<PageId, Page>();
+        Long                  first  = tidToFirstLogRecord.get(tid.getId());
+        if (first == null)
+        { return before; }
+
+        ArrayList<Long> updates = new ArrayList<Long>(); // offsets of the updates of tid
+        raf.seek(first);
+        while (raf.getFilePointer() < currentOffset)
+        {
+            long offset     = raf.getFilePointer();
+            int  type       = raf.readInt();
+            long record_tid = raf.readLong();
+            switch (type)
+            {
+                case UPDATE_RECORD:
+                    skipPageData(raf);
+                    skipPageData(raf);
+                    break;
+                case DELTA_RECORD:
+                    HeapPageDelta.skip(raf);
+                    break;
+                case CHECKPOINT_RECORD:
+                    skipCheckpoint(raf);
+                    break;
             }
+            raf.readLong();
+            if ((type == UPDATE_RECORD || type == DELTA_RECORD) && record_tid == tid.getId())
+            { updates.add(offset); }
         }
+
+        for (int i = updates.size() - 1; i >= 0; i--)
+        { undoUpdate(updates.get(i), before); }
+        return before;
+    }
+
+    /**
+     * Take back the UPDATE or DELTA record at offset, on top of the pages
+     * taken back so far. Caller holds the lock on this.
+     */
+    private
+    void undoUpdate(long offset, Map<PageId, Page> pages) throws IOException
+    {
+        raf.seek(offset);
+        int type = raf.readInt();
+        raf.readLong();
+        if (type == DELTA_RECORD)
+        {
+            HeapPageDelta delta = HeapPageDelta.read(raf);
+            pages.put(delta.getPageId(), delta.undo(currentPage(pages, delta.getPageId())));
+        }
+        else
+        {
+            Page before = readPageData(raf);
+            pages.put(before.getId(), before);
+        }
+    }
+
+    /**
+     * @return the page as recovery or rollback left it so far, or as it is
+     * on disk, bypassing the buffer pool
+     */
+    private
+    Page currentPage(Map<PageId, Page> pages, PageId pid)
+    {
+        Page page = pages.get(pid);
+        if (page == null)
+        { page = ((HeapFile) Database.getCatalog().getDbFile(pid.getTableId())).readPageFromDisk(pid); }
+        return page;
     }
 
     /**
@@ -550,7 +1061,11 @@ class LogFile
     {
         try
         {
+            closed = true;
+            Database.getBufferPool().flushAllPages(); // nothing to redo at the next start
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            rewrites++;
+            out.flush();
             raf.close();
         }
         catch (IOException e)
@@ -564,18 +1079,261 @@ class LogFile
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Recovery follows ARIES, in three passes over the log:
+     * <ul>
+     * <li> analysis scans forward from the last checkpoint (or from the
+     * first record of a transaction still running at the checkpoint, or the
+     * oldest recLSN in its dirty page table). It starts from the dirty page
+     * table of the checkpoint and adds the pages updated after it, each
+     * with the offset of its first update (its recLSN), and chains the
+     * updates of each transaction back from its last one.
+     * <li> redo scans forward from the oldest recLSN and applies committed
+     * updates to pages in the dirty page table: the after image of an
+     * UPDATE record, or the slots of a DELTA record on top of the page as
+     * it is on disk. Updates
+     * of aborted transactions are not redone: rollback() restores pages
+     * without logging compensation records, so there is nothing to
+     * repeat history with; a later committed update of the page carries the
+     * restored state in its full after image anyway.
+     * <li> undo follows the chains of the transactions that neither
+     * committed nor aborted, latest update first, and takes them back. The
+     * recovered pages are then written, and an ABORT record is logged for
+     * each loser.
+     * </ul>
+     * A record cut off at the end of the log by the crash is dropped.
      */
     public
     void recover() throws IOException
     {
+        Map<PageId, Page> recovered;
         synchronized (Database.getBufferPool())
         {
             synchronized (this)
             {
                 recoveryUndecided = false;
+                rewrites++;
                 // some code goes here
+                out.flush();
+                if (raf.length() < LONG_SIZE)
+                {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    out.reset(raf.getChannel(), 0);
+                    out.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = out.position();
+                    return;
+                }
+
+                Analysis analysis = analyze();
+                recovered = new HashMap<PageId, Page>();
+                redo(analysis, recovered);
+                undo(analysis, recovered);
+                for (Page page : recovered.values())
+                { Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page); }
+
+                // log the end of the losers, so they are not undone again
+                raf.setLength(analysis.end);
+                out.reset(raf.getChannel(), analysis.end);
+                currentOffset = analysis.end;
+                for (Long tid : analysis.losers())
+                {
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    currentOffset = out.position();
+                }
+                force();
+                tidToFirstLogRecord.clear();
+                synchronized (dirtyPages)
+                { dirtyPages.clear(); } // the recovered pages were written
+            }
+
+            // pages were written behind the back of the pool
+            for (PageId pid : recovered.keySet())
+            { Database.getBufferPool().discardPage(pid); }
+        }
+    }
+
+    /**
+     * What the analysis pass of recover() learns from the log.
+     */
+    private static
+    class Analysis
+    {
+        final HashMap<PageId, Long> dirtyPages = new HashMap<PageId, Long>(); // <page, recLSN>
+        final HashMap<Long, Long>   lastLSN    = new HashMap<Long, Long>(); // <tid, offset of its last update>
+        final HashMap<Long, Long>   prevLSN    = new HashMap<Long, Long>(); // <update, previous update of its tid>
+        final HashSet<Long>         begun      = new HashSet<Long>();
+        final HashSet<Long>         committed  = new HashSet<Long>();
+        final HashSet<Long>         aborted    = new HashSet<Long>();
+        long                        end; // offset after the last complete record
+
+        /**
+         * @return transactions that neither committed nor aborted
+         */
+        Set<Long> losers()
+        {
+            HashSet<Long> losers = new HashSet<Long>(begun);
+            losers.addAll(lastLSN.keySet());
+            losers.removeAll(committed);
+            losers.removeAll(aborted);
+            return losers;
+        }
+    }
+
+    /**
+     * analysis pass of recover(), caller holds the lock on this
+     */
+    private
+    Analysis analyze() throws IOException
+    {
+        Analysis analysis = new Analysis();
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        long start = raf.getFilePointer();
+
+        if (cpLoc != NO_CHECKPOINT_ID)
+        {
+            // updates of transactions running at the checkpoint, and of
+            // pages dirty at the checkpoint, go back further
+            raf.seek(cpLoc);
+            raf.readInt();
+            raf.readLong();
+            HashMap<Long, Long> active = new HashMap<Long, Long>();
+            readCheckpoint(raf, active, analysis.dirtyPages);
+            analysis.begun.addAll(active.keySet());
+            start = cpLoc;
+            for (long firstLogRecord : active.values())
+            { start = Math.min(start, firstLogRecord); }
+            for (long recLSN : analysis.dirtyPages.values())
+            { start = Math.min(start, recLSN); }
+        }
+
+        raf.seek(start);
+        analysis.end = start;
+        try
+        {
+            while (true)
+            {
+                long offset = raf.getFilePointer();
+                int  type   = raf.readInt();
+                long tid    = raf.readLong();
+                switch (type)
+                {
+                    case UPDATE_RECORD:
+                    case DELTA_RECORD:
+                        PageId pid;
+                        if (type == UPDATE_RECORD)
+                        {
+                            skipType(raf);
+                            pid = readPageId(raf);
+                            raf.skipBytes(raf.readInt());
+                            skipPageData(raf);
+                        }
+                        else
+                        { pid = HeapPageDelta.read(raf).getPageId(); }
+
+                        Long prev = analysis.lastLSN.put(tid, offset);
+                        if (prev != null)
+                        { analysis.prevLSN.put(offset, prev); }
+                        if (offset > cpLoc && !analysis.dirtyPages.containsKey(pid))
+                        { analysis.dirtyPages.put(pid, offset); }
+                        break;
+                    case BEGIN_RECORD:
+                        analysis.begun.add(tid);
+                        break;
+                    case COMMIT_RECORD:
+                        analysis.committed.add(tid);
+                        break;
+                    case ABORT_RECORD:
+                        analysis.aborted.add(tid);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpoint(raf);
+                        break;
+                }
+                raf.readLong();
+                analysis.end = raf.getFilePointer();
             }
         }
+        catch (EOFException e)
+        {
+            // end of log, or a record the crash did not let us finish
+        }
+        return analysis;
+    }
+
+    /**
+     * redo pass of recover(), caller holds the lock on this
+     *
+     * @param recovered pages recovered so far, by page id
+     */
+    private
+    void redo(Analysis analysis, Map<PageId, Page> recovered) throws IOException
+    {
+        if (analysis.dirtyPages.isEmpty())
+        { return; }
+
+        raf.seek(Collections.min(analysis.dirtyPages.values()));
+        while (raf.getFilePointer() < analysis.end)
+        {
+            long offset = raf.getFilePointer();
+            int  type   = raf.readInt();
+            long tid    = raf.readLong();
+            switch (type)
+            {
+                case UPDATE_RECORD:
+                    if (!analysis.committed.contains(tid))
+                    {
+                        skipPageData(raf);
+                        skipPageData(raf);
+                        break;
+                    }
+                    skipPageData(raf);
+                    Page after  = readPageData(raf);
+                    Long recLSN = analysis.dirtyPages.get(after.getId());
+                    if (recLSN != null && offset >= recLSN)
+                    { recovered.put(after.getId(), after); }
+                    break;
+                case DELTA_RECORD:
+                    HeapPageDelta delta = HeapPageDelta.read(raf);
+                    Long deltaRecLSN = analysis.dirtyPages.get(delta.getPageId());
+                    if (analysis.committed.contains(tid) && deltaRecLSN != null && offset >= deltaRecLSN)
+                    { recovered.put(delta.getPageId(), delta.redo(currentPage(recovered, delta.getPageId()))); }
+                    break;
+                case CHECKPOINT_RECORD:
+                    skipCheckpoint(raf);
+                    break;
+            }
+            raf.readLong();
+        }
+    }
+
+    /**
+     * undo pass of recover(), caller holds the lock on this
+     */
+    private
+    void undo(Analysis analysis, Map<PageId, Page> recovered) throws IOException
+    {
+        // latest update of all losers first
+        PriorityQueue<Long> toUndo = new PriorityQueue<Long>(11, Collections.<Long>reverseOrder());
+        for (Long tid : analysis.losers())
+        {
+            Long last = analysis.lastLSN.get(tid);
+            if (last != null)
+            { toUndo.add(last); }
+        }
+
+        while (!toUndo.isEmpty())
+        {
+            long offset = toUndo.poll();
+            undoUpdate(offset, recovered);
+
+            Long prev = analysis.prevLSN.get(offset);
+            if (prev != null)
+            { toUndo.add(prev); }
+        }
     }
 
     /**
@@ -587,10 +1345,259 @@ class LogFile
         // some code goes here
     }
 
-    public synchronized
+    /**
+     * Force everything appended so far to disk, together with the
+     * concurrent callers.
+     */
+    public
     void force() throws IOException
     {
-        raf.getChannel().force(true);
+        if (Thread.holdsLock(this))
+        {
+            // nobody can append meanwhile, and a leader would need the lock
+            out.flush();
+            raf.getChannel().force(true);
+            forces.incrementAndGet();
+            synchronized (group)
+            {
+                durable = Math.max(durable, truncated + currentOffset);
+                group.notifyAll();
+            }
+            return;
+        }
+        forceUpTo(truncated + currentOffset);
+    }
+
+    /**
+     * Return once the log is on disk up to end (truncated + offset). The
+     * first caller that finds no force running leads: it waits for more
+     * callers as setGroupCommit() allows, then forces all that was
+     * appended by then.
+     */
+    private
+    void forceUpTo(long end) throws IOException
+    {
+        synchronized (group)
+        {
+            waiting++;
+            if (forcing)
+            { group.notifyAll(); } // a leader may be waiting for its group to fill
+            awaitForce();
+            waiting--;
+            if (durable >= end)
+            { return; }
+            forcing = true;
+
+            long deadline = System.nanoTime() + groupCommitMicros * 1000;
+            long left;
+            while (waiting + 1 < groupCommitBatch && (left = deadline - System.nanoTime()) > 0)
+            {
+                try
+                {
+                    group.wait(left / 1000000, (int) (left % 1000000));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        long        target  = -1;
+        FileChannel channel;
+        try
+        {
+            synchronized (this)
+            {
+                out.flush();
+                target = truncated + currentOffset;
+                channel = raf.getChannel();
+                synchronized (group)
+                { syncing = true; }
+            }
+            channel.force(true);
+            forces.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            target = -1;
+            throw e;
+        }
+        finally
+        {
+            synchronized (group)
+            {
+                durable = Math.max(durable, target);
+                forcing = false;
+                syncing = false;
+                group.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * wait while the leader waits for the disk, caller holds the lock on
+     * group
+     */
+    private
+    void awaitSync()
+    {
+        boolean interrupted = false;
+        while (syncing)
+        {
+            try
+            {
+                group.wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * wait while a leader forces, caller holds the lock on group
+     */
+    private
+    void awaitForce()
+    {
+        boolean interrupted = false;
+        while (forcing)
+        {
+            try
+            {
+                group.wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Configure group commit.
+     *
+     * @param maxWaitMicros longest time a leader waits for more committers
+     *                      before forcing, 0 to force at once; committers
+     *                      arriving during a force still share the next one
+     * @param maxBatch      a leader stops waiting once this many callers
+     *                      wait for the force
+     */
+    public
+    void setGroupCommit(long maxWaitMicros, int maxBatch)
+    {
+        groupCommitMicros = maxWaitMicros;
+        groupCommitBatch = maxBatch;
+    }
+
+    /**
+     * @param millis time between two background checkpoints, 0 to only
+     *               checkpoint when logCheckpoint() is called; set by the
+     *               simpledb.LogFile.checkpointMillis system property,
+     *               30s by default
+     */
+    public
+    void setCheckpointInterval(long millis)
+    {
+        checkpointMillis = millis;
+    }
+
+    /**
+     * @return num of checkpoints taken
+     */
+    public
+    long getCheckpointCount()
+    {
+        return checkpoints;
+    }
+
+    /**
+     * @return true if the background thread should take a checkpoint: the
+     * interval has passed and something was appended since the last one
+     */
+    private
+    boolean checkpointDue()
+    {
+        long interval = checkpointMillis;
+        return interval > 0 && !closed && !recoveryUndecided
+               && System.currentTimeMillis() - lastCheckpoint >= interval
+               && truncated + currentOffset > checkpointEnd;
+    }
+
+    /**
+     * The background thread taking checkpoints. It only keeps a weak
+     * reference to the log and stops once it is gone, closed, or no longer
+     * the log of the Database.
+     */
+    private static
+    class Checkpointer implements Runnable
+    {
+        private static final int POLL_MS = 100;
+
+        private final WeakReference<LogFile> log;
+
+        Checkpointer(LogFile log)
+        {
+            this.log = new WeakReference<LogFile>(log);
+        }
+
+        public
+        void run()
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(POLL_MS);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                LogFile current = log.get();
+                if (current == null || current.closed || Database.getLogFile() != current)
+                { return; }
+                if (!current.checkpointDue())
+                { continue; }
+                try
+                {
+                    current.logCheckpoint();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Log the first update of a page after a checkpoint with full before
+     * and after images rather than a delta, so recovery does not depend on
+     * the page on disk having been written whole. Off by default, or set by
+     * the simpledb.LogFile.fullPageImages system property.
+     */
+    public
+    void setFullPageImages(boolean on)
+    {
+        fullPageImages = on;
+    }
+
+    /**
+     * @return num of times the log was forced to disk
+     */
+    public
+    long getForceCount()
+    {
+        return forces.get();
     }
 
 }
@@ -39,6 +39,8 @@ class LogicalPlan
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private long memoryBudget = -1; // of the joins, aggregate and sort, -1 for their defaults
+    private int limit = -1; // LIMIT of the query, -1 if none
 //    private Query owner;
 
     /**
@@ -245,6 +247,53 @@ class LogicalPlan
         hasAgg = true;
     }
 
+    /**
+     * Add a LIMIT: the query returns no more than limit tuples. With an
+     * ORDER BY the plan keeps only the first limit tuples of the ordering,
+     * see TopN, as long as they fit the memory budget of the sort;
+     * otherwise the sort spills and the first limit tuples are taken from
+     * it.
+     *
+     * @param limit the number of tuples to return at most, or -1 for no
+     *              limit
+     */
+    public
+    void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the LIMIT of the query, or -1 if it has none
+     */
+    public
+    int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Set the memory budget of each hash join, the aggregate and the sort
+     * of this query, past which they spill to disk.
+     *
+     * @param bytes the budget in bytes, or -1 for the operators' defaults
+     */
+    public
+    void setMemoryBudget(long bytes)
+    {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * @return the memory budget of each hash join, the aggregate and the
+     * sort of this query, or -1 for the operators' defaults
+     */
+    public
+    long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
     /**
      * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
      * a single ORDER BY field.
@@ -472,6 +521,8 @@ class LogicalPlan
 
             DbIterator j;
             j = jo.instantiateJoin(lj, plan1, plan2);
+            if (memoryBudget > 0 && j instanceof Join)
+            { ((Join) j).setMemoryBudget(memoryBudget); }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin)
@@ -591,17 +642,42 @@ class LogicalPlan
             {
                 throw new simpledb.ParsingException(e);
             }
+            if (memoryBudget > 0)
+            { aggNode.setMemoryBudget(memoryBudget); }
             node = aggNode;
         }
 
-        if (hasOrderBy)
+        if (hasOrderBy && limit >= 0 && topNFits(node.getTupleDesc()))
         {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        }
+        else if (hasOrderBy)
+        {
+            OrderBy oByNode = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            if (memoryBudget > 0)
+            { oByNode.setMemoryBudget(memoryBudget); }
+            node = oByNode;
+        }
+        if (limit >= 0 && !(node instanceof TopN))
+        {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return true if limit tuples of td fit the memory budget of the sort,
+     * estimated the way OrderBy does
+     */
+    private
+    boolean topNFits(TupleDesc td)
+    {
+        long budget     = memoryBudget > 0 ? memoryBudget : OrderBy.DEFAULT_MEMORY_BUDGET;
+        long tupleBytes = OrderBy.TUPLE_OVERHEAD + td.numFields() * OrderBy.FIELD_OVERHEAD + td.getSize();
+        return (long) limit * tupleBytes <= budget;
+    }
+
     public static
     void main(String argv[])
     {
@@ -1,22 +1,52 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ *
+ * Input that fits the memory budget is sorted in memory. Larger input is
+ * sorted externally: replacement selection over a heap of as many tuples
+ * as fit writes sorted runs to SpillFiles, the runs average twice the
+ * heap on random input, and the runs are merged with a k-way heap merge.
+ * When there are more runs than the budget has read buffers for, runs are
+ * merged into longer runs first.
  */
 public
 class OrderBy extends Operator
 {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * default memory budget of the sort in bytes, from
+     * simpledb.OrderBy.memoryBudget if set
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = Long.getLong("simpledb.OrderBy.memoryBudget", 64L << 20);
+
+    /**
+     * bytes a tuple in memory is taken to need besides its fields' data:
+     * the Tuple, its field array and list or heap entry
+     */
+    static final int TUPLE_OVERHEAD = 64;
+
+    /**
+     * bytes a field object is taken to need besides its data
+     */
+    static final int FIELD_OVERHEAD = 16;
+
     private DbIterator child;
     private TupleDesc  td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private ArrayList<Tuple> childTups; // sorted input, null if it was spilled
     private int             orderByField;
     private String          orderByFieldName;
     private Iterator<Tuple> it;
     private boolean         asc;
+    private long            memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private TupleComparator comparator;
+    private ArrayList<SpillFile> runs; // sorted runs of spilled input
+    private Merge           merge; // final merge of runs
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -59,30 +89,185 @@ class OrderBy extends Operator
         return td;
     }
 
+    /**
+     * Set the memory budget of the sort, takes effect at the next open()
+     *
+     * @param bytes the budget in bytes
+     */
+    public
+    void setMemoryBudget(long bytes)
+    {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * @return the memory budget of the sort in bytes
+     */
+    public
+    long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs the input was spilled to, 0 if it
+     * was sorted in memory
+     */
+    int numRuns()
+    {
+        return runs == null ? 0 : runs.size();
+    }
+
     public
     void open() throws DbException, NoSuchElementException,
                        TransactionAbortedException
     {
+        if (merge != null)
+        {
+            merge.close();
+            merge = null;
+        }
+        deleteRuns();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        comparator = new TupleComparator(orderByField, asc);
+        long tupleBytes = TUPLE_OVERHEAD + td.numFields() * FIELD_OVERHEAD + td.getSize();
+        long maxTuples  = Math.max(2, memoryBudget / tupleBytes);
+
+        // load as many tuples as fit in a collection, and sort it if that is all
+        childTups = new ArrayList<Tuple>();
+        while (childTups.size() < maxTuples && child.hasNext())
         { childTups.add((Tuple) child.next()); }
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (!child.hasNext())
+        {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        }
+        else
+        {
+            runs = new ArrayList<SpillFile>();
+            try
+            {
+                writeRuns();
+                mergeRuns();
+                merge = new Merge(runs);
+            }
+            catch (IOException e)
+            {
+                deleteRuns();
+                throw new DbException("can't spill sort input: " + e);
+            }
+        }
         super.open();
     }
 
+    /**
+     * Write the rest of the input to sorted runs by replacement selection.
+     * The heap starts with the tuples of childTups, and the smallest is
+     * written to the current run and replaced by the next input tuple. A
+     * tuple that sorts before the last one written waits for the next run.
+     */
+    private
+    void writeRuns() throws IOException, DbException, TransactionAbortedException
+    {
+        PriorityQueue<RunTuple> heap = new PriorityQueue<RunTuple>(childTups.size(), new Comparator<RunTuple>()
+        {
+            public
+            int compare(RunTuple a, RunTuple b)
+            {
+                if (a.run != b.run)
+                { return a.run < b.run ? -1 : 1; }
+                return comparator.compare(a.tuple, b.tuple);
+            }
+        });
+        for (Tuple t : childTups)
+        { heap.add(new RunTuple(0, t)); }
+        childTups = null;
+
+        SpillFile out = null;
+        int       run = -1;
+        while (!heap.isEmpty())
+        {
+            RunTuple top = heap.poll();
+            if (top.run != run)
+            {
+                run = top.run;
+                out = new SpillFile(td);
+                runs.add(out);
+            }
+            out.add(top.tuple);
+
+            if (child.hasNext())
+            {
+                Tuple t = child.next();
+                top.run = comparator.compare(t, top.tuple) < 0 ? run + 1 : run;
+                top.tuple = t;
+                heap.add(top);
+            }
+        }
+    }
+
+    /**
+     * Merge runs into longer runs until there are no more than the budget
+     * can read at once
+     */
+    private
+    void mergeRuns() throws IOException, DbException, TransactionAbortedException
+    {
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / SpillFile.READER_BYTES));
+        while (runs.size() > fanIn)
+        {
+            List<SpillFile> inputs = new ArrayList<SpillFile>(runs.subList(0, fanIn));
+            runs.subList(0, fanIn).clear();
+
+            SpillFile out = new SpillFile(td);
+            Merge     m   = new Merge(inputs);
+            Tuple     t;
+            while ((t = m.next()) != null)
+            { out.add(t); }
+            m.close();
+            for (SpillFile f : inputs)
+            { f.delete(); }
+            runs.add(out);
+        }
+    }
+
+    private
+    void deleteRuns()
+    {
+        if (runs != null)
+        {
+            for (SpillFile f : runs)
+            { f.delete(); }
+            runs = null;
+        }
+    }
+
     public
     void close()
     {
         super.close();
         it = null;
+        if (merge != null)
+        {
+            merge.close();
+            merge = null;
+        }
+        deleteRuns();
     }
 
     public
     void rewind() throws DbException, TransactionAbortedException
     {
-        it = childTups.iterator();
+        if (runs == null)
+        {
+            it = childTups.iterator();
+            return;
+        }
+        merge.close();
+        try
+        { merge = new Merge(runs); }
+        catch (IOException e)
+        { throw new DbException("can't read sorted runs: " + e); }
     }
 
     /**
@@ -100,49 +285,112 @@ class OrderBy extends Operator
         {
             return it.next();
         }
+        else if (merge != null)
+        { return merge.next(); }
         else
         { return null; }
     }
 
-    @Override
-    public
-    DbIterator[] getChildren()
+    /**
+     * a tuple of the replacement selection heap and the run it goes to
+     */
+    private static
+    class RunTuple
     {
-        return new DbIterator[]{this.child};
+        int   run;
+        Tuple tuple;
+
+        RunTuple(int run, Tuple tuple)
+        {
+            this.run = run;
+            this.tuple = tuple;
+        }
     }
 
-    @Override
-    public
-    void setChildren(DbIterator[] children)
+    /**
+     * a run being merged and its next tuple
+     */
+    private static
+    class RunCursor
     {
-        this.child = children[0];
+        DbIterator in;
+        Tuple      head;
+
+        RunCursor(DbIterator in)
+        {
+            this.in = in;
+        }
     }
 
-}
+    /**
+     * k-way merge of sorted runs, with a heap of the next tuple of each
+     */
+    private
+    class Merge
+    {
+        private PriorityQueue<RunCursor> heap;
+        private ArrayList<RunCursor>     cursors;
 
-class TupleComparator implements Comparator<Tuple>
-{
-    int     field;
-    boolean asc;
+        Merge(List<SpillFile> runs) throws IOException, DbException, TransactionAbortedException
+        {
+            cursors = new ArrayList<RunCursor>();
+            heap = new PriorityQueue<RunCursor>(Math.max(1, runs.size()), new Comparator<RunCursor>()
+            {
+                public
+                int compare(RunCursor a, RunCursor b)
+                {
+                    return comparator.compare(a.head, b.head);
+                }
+            });
+            for (SpillFile f : runs)
+            {
+                RunCursor c = new RunCursor(f.iterator());
+                c.in.open();
+                cursors.add(c);
+                if (c.in.hasNext())
+                {
+                    c.head = c.in.next();
+                    heap.add(c);
+                }
+            }
+        }
+
+        /**
+         * @return the next tuple of the merge, null when all runs are read
+         */
+        Tuple next() throws DbException, TransactionAbortedException
+        {
+            RunCursor c = heap.poll();
+            if (c == null)
+            { return null; }
+            Tuple t = c.head;
+            if (c.in.hasNext())
+            {
+                c.head = c.in.next();
+                heap.add(c);
+            }
+            return t;
+        }
 
+        void close()
+        {
+            for (RunCursor c : cursors)
+            { c.in.close(); }
+        }
+    }
+
+    @Override
     public
-    TupleComparator(int field, boolean asc)
+    DbIterator[] getChildren()
     {
-        this.field = field;
-        this.asc = asc;
+        return new DbIterator[]{this.child};
     }
 
+    @Override
     public
-    int compare(Tuple o1, Tuple o2)
-    {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-        { return 0; }
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-        { return asc ? 1 : -1; }
-        else
-        { return asc ? -1 : 1; }
+    void setChildren(DbIterator[] children)
+    {
+        this.child = children[0];
     }
 
 }
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are
  * resident in the BufferPool.
@@ -9,7 +11,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been
  * modified since they were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor
+ * For recovery purposes, pages MUST have a constructor
  * of the form:
  * Page(PageId id, byte[] data)
  */
@@ -57,6 +59,16 @@ interface Page
     public
     byte[] getPageData();
 
+    /**
+     * Same bytes as getPageData(), as a read-only buffer positioned at 0
+     * that the page may share instead of copying.
+     * Used to write this page to disk.
+     *
+     * @return A buffer holding the bytes of this page.
+     */
+    public
+    ByteBuffer getPageBuffer();
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.concurrent.*;
+
+/**
+ * PageReadAhead stages pages of one HeapFile that a sequential scan is
+ * about to read.
+ * <p>
+ * HeapFile.FileIterator asks for the next pages once it sees sequential
+ * access. They are read by a small, shared pool of I/O threads into a side
+ * staging area, not into the BufferPool, so no locks are taken on behalf of
+ * the scanning transaction. When BufferPool misses on a staged page,
+ * HeapFile.readPage() takes it from here instead of reading the disk.
+ * <p>
+ * Staged pages are clean copies of the disk. HeapFile.writePage() drops the
+ * staged copy of a page it writes, so a stale page is never handed out.
+ */
+public
+class PageReadAhead
+{
+    /**
+     * num of pages read ahead of a sequential scan
+     */
+    public static final int READ_AHEAD_PAGES = 8;
+
+    /**
+     * max num of pages staged per file, staged pages nobody asked for are
+     * dropped when the scan that asked for them is closed or rewound, or
+     * when the file is closed
+     */
+    private static final int MAX_STAGED_PAGES = 2 * READ_AHEAD_PAGES;
+
+    private static final int IO_THREADS = 2;
+
+    private static ExecutorService ioPool; // shared by all files, created on first use
+
+    private final HeapFile                                   file;
+    private final ConcurrentHashMap<Integer, Future<Page>> staged; // page no -> page being read
+
+    public
+    PageReadAhead(HeapFile file)
+    {
+        this.file = file;
+        this.staged = new ConcurrentHashMap<Integer, Future<Page>>();
+    }
+
+    private static synchronized
+    ExecutorService getIoPool()
+    {
+        if (ioPool == null)
+        {
+            ioPool = Executors.newFixedThreadPool(
+                    IO_THREADS, new ThreadFactory()
+                    {
+                        public
+                        Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "simpledb-readahead");
+                            t.setDaemon(true); // never keep the JVM alive
+                            return t;
+                        }
+                    }
+                                                 );
+        }
+        return ioPool;
+    }
+
+    /**
+     * Start reading pages [first, first + count) of the file in the
+     * background. Pages that are staged already, or resident in the buffer
+     * pool, are skipped.
+     *
+     * @param first page no of the 1st page to read
+     * @param count num of pages to read
+     */
+    public
+    void prefetch(int first, int count)
+    {
+        int        last = Math.min(first + count, file.numPages());
+        BufferPool bp   = Database.getBufferPool();
+        for (int pageNo = first; pageNo < last && staged.size() < MAX_STAGED_PAGES; pageNo++)
+        {
+            if (staged.containsKey(pageNo))
+            { continue; }
+            final HeapPageId pid = new HeapPageId(file.getId(), pageNo);
+            if (bp.containsPage(pid))
+            { continue; }
+
+            FutureTask<Page> task = new FutureTask<Page>(
+                    new Callable<Page>()
+                    {
+                        public
+                        Page call() throws Exception
+                        {
+                            return file.readPageFromDisk(pid);
+                        }
+                    });
+            if (staged.putIfAbsent(pageNo, task) == null)
+            { getIoPool().execute(task); }
+        }
+    }
+
+    /**
+     * Take a staged page, waiting for it if it is still being read.
+     *
+     * @param pageNo
+     * @return the page, or null if it is not staged or could not be read
+     */
+    public
+    Page take(int pageNo)
+    {
+        Future<Page> f = staged.remove(pageNo);
+        if (f == null)
+        { return null; }
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            return null; // let the caller read it again and report the error
+        }
+    }
+
+    /**
+     * Drop the staged copy of a page, e.g. because it was just written
+     *
+     * @param pageNo
+     */
+    public
+    void invalidate(int pageNo)
+    {
+        Future<Page> f = staged.remove(pageNo);
+        if (f != null)
+        { f.cancel(false); }
+    }
+
+    /**
+     * Drop the staged copies of pages [first, first + count), e.g. because
+     * the scan that asked for them stopped early
+     *
+     * @param first page no of the 1st page to drop
+     * @param count num of pages to drop
+     */
+    public
+    void cancel(int first, int count)
+    {
+        for (int pageNo = first; pageNo < first + count; pageNo++)
+        {
+            invalidate(pageNo);
+        }
+    }
+
+    /**
+     * @return num of pages staged or being read
+     */
+    public
+    int numStaged()
+    {
+        return staged.size();
+    }
+
+    /**
+     * Drop all staged pages
+     */
+    public
+    void clear()
+    {
+        for (Integer pageNo : staged.keySet())
+        {
+            invalidate(pageNo);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * PageRegistry maps the Page and PageId classes LogFile rebuilds from the
+ * log to small type codes, with a factory for each, so page images are
+ * written with a code instead of class names and read back without
+ * reflection. HeapPage and HeapPageId are registered; classes that are not
+ * are still logged by class name.
+ */
+public
+class PageRegistry
+{
+    /**
+     * builds a page from its id and the bytes of getPageData()
+     */
+    public
+    interface PageFactory
+    {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    /**
+     * builds a page id from the ints of PageId.serialize()
+     */
+    public
+    interface PageIdFactory
+    {
+        PageId create(int[] data);
+    }
+
+    /**
+     * largest type code
+     */
+    public static final int MAX_CODE = 255;
+
+    private static final HashMap<Class<?>, Integer> pageCodes = new HashMap<Class<?>, Integer>();
+    private static final HashMap<Class<?>, Integer> idCodes   = new HashMap<Class<?>, Integer>();
+    private static final PageFactory[]              pages     = new PageFactory[MAX_CODE + 1];
+    private static final PageIdFactory[]            ids       = new PageIdFactory[MAX_CODE + 1];
+
+    static
+    {
+        registerPage(1, HeapPage.class, new PageFactory()
+        {
+            public
+            Page create(PageId pid, byte[] data) throws IOException
+            {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        registerPageId(1, HeapPageId.class, new PageIdFactory()
+        {
+            public
+            PageId create(int[] data)
+            {
+                return new HeapPageId(data[0], data[1]);
+            }
+        });
+    }
+
+    /**
+     * Register a Page class under code. Codes of a log must mean the same
+     * classes when it is read back.
+     *
+     * @throws IllegalArgumentException if code is out of range or taken
+     */
+    public static synchronized
+    void registerPage(int code, Class<? extends Page> c, PageFactory factory)
+    {
+        checkCode(code, pages);
+        pages[code] = factory;
+        pageCodes.put(c, code);
+    }
+
+    /**
+     * Register a PageId class under code.
+     *
+     * @throws IllegalArgumentException if code is out of range or taken
+     */
+    public static synchronized
+    void registerPageId(int code, Class<? extends PageId> c, PageIdFactory factory)
+    {
+        checkCode(code, ids);
+        ids[code] = factory;
+        idCodes.put(c, code);
+    }
+
+    /**
+     * @return the code of a page class, or -1 if it is not registered
+     */
+    static synchronized
+    int pageCode(Class<?> c)
+    {
+        Integer code = pageCodes.get(c);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the code of a page id class, or -1 if it is not registered
+     */
+    static synchronized
+    int pageIdCode(Class<?> c)
+    {
+        Integer code = idCodes.get(c);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the factory registered under code
+     * @throws IOException if there is none, the log is not ours
+     */
+    static synchronized
+    PageFactory pageFactory(int code) throws IOException
+    {
+        PageFactory factory = code <= MAX_CODE ? pages[code] : null;
+        if (factory == null)
+        { throw new IOException("no page class registered under " + code); }
+        return factory;
+    }
+
+    /**
+     * @return the factory registered under code
+     * @throws IOException if there is none, the log is not ours
+     */
+    static synchronized
+    PageIdFactory pageIdFactory(int code) throws IOException
+    {
+        PageIdFactory factory = code <= MAX_CODE ? ids[code] : null;
+        if (factory == null)
+        { throw new IOException("no page id class registered under " + code); }
+        return factory;
+    }
+
+    private static
+    void checkCode(int code, Object[] factories)
+    {
+        if (code < 1 || code > MAX_CODE)
+        { throw new IllegalArgumentException("type code " + code + " out of range"); }
+        if (factories[code] != null)
+        { throw new IllegalArgumentException("type code " + code + " is taken"); }
+    }
+}
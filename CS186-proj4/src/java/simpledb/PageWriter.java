@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageWriter writes dirty pages of a BufferPool back to their files.
+ * <p>
+ * Pages are sorted by table and page number, and each run of consecutive
+ * pages of a HeapFile goes out in one gathering write (HeapFile.writePages)
+ * instead of one write per page.
+ * <p>
+ * Transactions committing at the same time share the work: the first one
+ * to flush becomes the leader and writes the pages of every transaction
+ * queued behind it in one sorted pass, the others wait for it. This is
+ * for commits that force their data pages; under NO-FORCE (see
+ * BufferPool.setStealNoForce) commit only forces the log.
+ * <p>
+ * A background thread cleans pages that are dirty but whose transaction has
+ * committed, at most pagesPerSecond pages a second so it does not compete
+ * with foreground I/O. Clean pages are cheap to evict. The thread only
+ * keeps a weak reference to the pool and stops once the pool is gone.
+ * <p>
+ * Pages written are reported to the LogFile, so they leave the dirty page
+ * table its checkpoints record.
+ */
+public
+class PageWriter
+{
+    /**
+     * max num of pages in one gathering write
+     */
+    public static final int MAX_RUN_PAGES = 64;
+
+    public static final int DEFAULT_PAGES_PER_SECOND = 1000;
+
+    private static final int INTERVAL_MS = 100; // time between two rounds of the background thread
+
+    private final ArrayList<Flush> pending; // flushes waiting for a leader, guarded by this
+    private       boolean          flushing; // a leader is writing, guarded by this
+    private volatile int           pagesPerSecond;
+    private volatile boolean       closed;
+
+    private final AtomicLong writes; // num of write calls, a run counts once
+    private final AtomicLong pagesWritten;
+
+    /**
+     * a batch of pages one caller waits for
+     */
+    private static
+    class Flush
+    {
+        final Collection<Page> pages;
+        boolean                done;
+        IOException            error;
+
+        Flush(Collection<Page> pages)
+        {
+            this.pages = pages;
+        }
+    }
+
+    /**
+     * Create a writer for pool and start its background thread.
+     */
+    public
+    PageWriter(BufferPool pool)
+    {
+        pending = new ArrayList<Flush>();
+        pagesPerSecond = DEFAULT_PAGES_PER_SECOND;
+        writes = new AtomicLong();
+        pagesWritten = new AtomicLong();
+
+        Thread cleaner = new Thread(new Cleaner(pool, this), "PageWriter");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    /**
+     * Write pages to disk and return once they are written, together with
+     * the pages of concurrent callers. Pages are not marked clean.
+     *
+     * @throws IOException if a write of the batch failed
+     */
+    public
+    void flush(Collection<Page> pages) throws IOException
+    {
+        if (pages.isEmpty())
+        { return; }
+
+        Flush mine = new Flush(pages);
+        synchronized (this)
+        {
+            pending.add(mine);
+            while (flushing && !mine.done)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (mine.done)
+            {
+                if (mine.error != null)
+                { throw mine.error; }
+                return;
+            }
+            flushing = true;
+        }
+
+        // leader: write what is queued, until nobody is left waiting
+        while (true)
+        {
+            ArrayList<Flush> batch;
+            synchronized (this)
+            {
+                if (pending.isEmpty())
+                {
+                    flushing = false;
+                    notifyAll();
+                    break;
+                }
+                batch = new ArrayList<Flush>(pending);
+                pending.clear();
+            }
+
+            ArrayList<Page> all = new ArrayList<Page>();
+            for (Flush flush : batch)
+            { all.addAll(flush.pages); }
+            IOException error = null;
+            try
+            {
+                write(all);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            synchronized (this)
+            {
+                for (Flush flush : batch)
+                {
+                    flush.done = true;
+                    flush.error = error;
+                }
+                notifyAll();
+            }
+        }
+
+        if (mine.error != null)
+        { throw mine.error; }
+    }
+
+    /**
+     * Write pages right away, sorted by table and page number, each run of
+     * consecutive pages of a HeapFile in one write. A page listed twice is
+     * written once.
+     */
+    public
+    void write(Collection<Page> pages) throws IOException
+    {
+        ArrayList<Page> sorted = new ArrayList<Page>(pages);
+        Collections.sort(sorted, new Comparator<Page>()
+        {
+            public
+            int compare(Page a, Page b)
+            {
+                PageId x = a.getId(), y = b.getId();
+                if (x.getTableId() != y.getTableId())
+                { return x.getTableId() < y.getTableId() ? -1 : 1; }
+                return Integer.compare(x.pageNumber(), y.pageNumber());
+            }
+        });
+
+        ArrayList<Page> run = new ArrayList<Page>();
+        for (Page page : sorted)
+        {
+            if (!run.isEmpty())
+            {
+                PageId last = run.get(run.size() - 1).getId();
+                if (last.equals(page.getId()))
+                { continue; }
+                boolean next = last.getTableId() == page.getId().getTableId()
+                               && last.pageNumber() + 1 == page.getId().pageNumber();
+                if (!next || run.size() == MAX_RUN_PAGES)
+                {
+                    writeRun(run);
+                    run.clear();
+                }
+            }
+            run.add(page);
+        }
+        if (!run.isEmpty())
+        { writeRun(run); }
+    }
+
+    private
+    void writeRun(List<Page> run) throws IOException
+    {
+        DbFile  file = Database.getCatalog().getDbFile(run.get(0).getId().getTableId());
+        LogFile log  = Database.getLogFile();
+        long    mark = log.beginPageWrite();
+        if (file instanceof HeapFile)
+        {
+            ((HeapFile) file).writePages(run);
+            writes.incrementAndGet();
+        }
+        else
+        {
+            for (Page page : run)
+            { file.writePage(page); }
+            writes.addAndGet(run.size());
+        }
+        pagesWritten.addAndGet(run.size());
+        for (Page page : run)
+        { log.pageWritten(page.getId(), mark); }
+    }
+
+    /**
+     * @param pagesPerSecond max num of pages the background thread writes a
+     *                       second, 0 to pause it
+     */
+    public
+    void setPagesPerSecond(int pagesPerSecond)
+    {
+        this.pagesPerSecond = pagesPerSecond;
+    }
+
+    /**
+     * @return num of write calls made, a run of pages counts once
+     */
+    public
+    long getWriteCount()
+    {
+        return writes.get();
+    }
+
+    /**
+     * @return num of pages written
+     */
+    public
+    long getPagesWritten()
+    {
+        return pagesWritten.get();
+    }
+
+    /**
+     * stop the background thread
+     */
+    public
+    void close()
+    {
+        closed = true;
+    }
+
+    /**
+     * The background thread. Every INTERVAL_MS it asks the pool to clean up
+     * to a round's share of pagesPerSecond committed dirty pages.
+     */
+    private static
+    class Cleaner implements Runnable
+    {
+        private final WeakReference<BufferPool> pool;
+        private final PageWriter                writer;
+
+        Cleaner(BufferPool pool, PageWriter writer)
+        {
+            this.pool = new WeakReference<BufferPool>(pool);
+            this.writer = writer;
+        }
+
+        public
+        void run()
+        {
+            while (!writer.closed)
+            {
+                try
+                {
+                    Thread.sleep(INTERVAL_MS);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                BufferPool bp     = pool.get();
+                int        budget = writer.pagesPerSecond * INTERVAL_MS / 1000;
+                if (bp == null)
+                { return; }
+                if (budget == 0)
+                { continue; }
+                try
+                {
+                    bp.cleanCommittedPages(budget);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
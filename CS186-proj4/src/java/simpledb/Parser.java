@@ -5,6 +5,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -17,6 +19,32 @@ public
 class Parser
 {
     static boolean explain = false;
+    static long    memoryBudget = -1; // of each query's joins, aggregate and sort, -1 for the defaults
+
+    // LIMIT n ending the first statement of a string, which Zql does not parse
+    static final Pattern LIMIT = Pattern.compile("^([^;]*?)\\s+limit\\s+(\\d+)\\s*;",
+                                                 Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private int limit = -1; // LIMIT taken off the statement being processed, -1 if none
+
+    /**
+     * take a LIMIT off the end of the first statement of sql, and keep it
+     * in limit
+     *
+     * @return sql without the LIMIT
+     */
+    String takeLimit(String sql) throws simpledb.ParsingException
+    {
+        limit = -1;
+        Matcher m = LIMIT.matcher(sql);
+        if (!m.find())
+        { return sql; }
+        try
+        { limit = Integer.parseInt(m.group(2)); }
+        catch (NumberFormatException e)
+        { throw new simpledb.ParsingException("LIMIT " + m.group(2) + " is too large"); }
+        return m.group(1) + ";" + sql.substring(m.end());
+    }
 
     public static
     Predicate.Op getOp(String s) throws simpledb.ParsingException
@@ -193,6 +221,7 @@ class Parser
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setMemoryBudget(memoryBudget);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++)
         {
@@ -368,6 +397,7 @@ class Parser
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
@@ -606,6 +636,7 @@ class Parser
     LogicalPlan generateLogicalPlan(TransactionId tid, String s)
     throws simpledb.ParsingException
     {
+        s = takeLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser            p   = new ZqlParser(bis);
         try
@@ -614,6 +645,7 @@ class Parser
             if (stmt instanceof ZQuery)
             {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
                 return lp;
             }
         }
@@ -672,6 +704,14 @@ class Parser
     {
         try
         {
+            // Zql does not parse LIMIT, take it off first
+            ByteArrayOutputStream sql = new ByteArrayOutputStream();
+            byte[]                buf = new byte[4096];
+            int                   n;
+            while ((n = is.read(buf)) > 0)
+            { sql.write(buf, 0, n); }
+            is = new ByteArrayInputStream(takeLimit(sql.toString("UTF-8")).getBytes("UTF-8"));
+
             ZqlParser  p = new ZqlParser(is); // parses SQL and fills in java structures representing SQL statements and expressions
             ZStatement s = p.readStatement(); // interface for SQL statements
 
@@ -776,7 +816,7 @@ class Parser
     public static final String[] SQL_COMMANDS = {
             "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"
+            "insert", "delete", "values", "into", "order by", "limit"
     };
 
     /**
@@ -800,11 +840,12 @@ class Parser
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-memory bytes] [-f queryFile]";
 
     protected
     void shutdown()
     {
+        Database.shutdown();
         System.out.println("Bye");
     }
 
@@ -837,6 +878,15 @@ class Parser
                     explain = true;
                     System.out.println("Explain mode enabled.");
                 }
+                else if (argv[i].equals("-memory"))
+                {
+                    if (++i == argv.length)
+                    {
+                        System.out.println("Expected memory budget after -memory\n" + usage);
+                        System.exit(0);
+                    }
+                    memoryBudget = Long.parseLong(argv[i]);
+                }
                 else if (argv[i].equals("-f"))
                 {
                     interactive = false;
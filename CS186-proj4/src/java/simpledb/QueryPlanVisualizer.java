@@ -18,6 +18,7 @@ class QueryPlanVisualizer
     static final String SCAN      = "scan";
     static final String ORDERBY   = "o";
     static final String GROUPBY   = "g";
+    static final String LIMIT     = "limit";
     static final String SPACE     = "  ";
 
     private
@@ -294,6 +295,58 @@ class QueryPlanVisualizer
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof TopN)
+            {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$s),top %3$d,card:%4$d",
+                        ORDERBY,
+                        children[0].getTupleDesc().getFieldName(
+                                o.getOrderByField()), o.getLimit(), o.getEstimatedCardinality()
+                                             );
+                int upBarShift = parentUpperBarStartShift;
+                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
+                { upBarShift = ORDERBY.length() / 2; }
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                                                         currentDepth + 2 + adjustDepth, children[0],
+                                                         currentStartPosition, upBarShift
+                                                        );
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                                             - ORDERBY.length() / 2;
+                thisNode.width = Math.max(
+                        child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition
+                                         );
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
+            else if (plan instanceof Limit)
+            {
+                Limit o = (Limit) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$d),card:%3$d",
+                        LIMIT, o.getLimit(), o.getEstimatedCardinality()
+                                             );
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                { upBarShift = LIMIT.length() / 2; }
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                                                         currentDepth + 2 + adjustDepth, children[0],
+                                                         currentStartPosition, upBarShift
+                                                        );
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                                             - LIMIT.length() / 2;
+                thisNode.width = Math.max(
+                        child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition
+                                         );
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
             else if (plan instanceof Project)
             {
                 Project          p      = (Project) plan;
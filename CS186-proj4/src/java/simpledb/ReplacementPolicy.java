@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page BufferPool evicts when the pool is
+ * full. Policies only track PageIds; BufferPool keeps the pages themselves.
+ * <p>
+ * BufferPool calls:
+ * 1. admit() when a page is read into the pool,
+ * 2. access() on every hit of a resident page,
+ * 3. remove() when a page leaves the pool without being chosen as a victim,
+ * 4. evict() to pick (and forget) a victim,
+ * 5. restore() when a victim could not leave the pool after all.
+ * <p>
+ * A policy must never return a page that the Evictable filter rejects, so
+ * NO-STEAL (dirty pages of uncommitted transactions stay in memory) is
+ * enforced by BufferPool and not by each policy.
+ */
+public
+interface ReplacementPolicy
+{
+    /**
+     * Filter used by evict() to skip pages that may not leave the pool
+     */
+    public
+    interface Evictable
+    {
+        public
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * a page has been read into the pool
+     *
+     * @param pid
+     */
+    public
+    void admit(PageId pid);
+
+    /**
+     * a resident page has been accessed
+     *
+     * @param pid
+     */
+    public
+    void access(PageId pid);
+
+    /**
+     * a page has been dropped from the pool, forget it
+     *
+     * @param pid
+     */
+    public
+    void remove(PageId pid);
+
+    /**
+     * choose a victim among tracked pages accepted by filter, and stop
+     * tracking it
+     *
+     * @param filter
+     * @return the victim, or null if no tracked page can be evicted
+     */
+    public
+    PageId evict(Evictable filter);
+
+    /**
+     * put back a victim that evict() just returned, as it was before, so
+     * that failing to evict it does not count as a reference
+     *
+     * @param pid
+     */
+    public
+    void restore(PageId pid);
+
+    /**
+     * @return num of pages tracked by this policy
+     */
+    public
+    int size();
+
+    /**
+     * @param numPages num of pages the new policy will manage
+     * @return an empty policy of the same kind and settings, scaled to
+     * numPages; used to give each BufferPool shard its own policy
+     */
+    public
+    ReplacementPolicy newInstance(int numPages);
+}
@@ -95,6 +95,23 @@ class SeqScan implements DbIterator
         table_alias = tableAlias;
     }
 
+    /**
+     * Only return the tuples p accepts. For a HeapFile p is tested on the
+     * page bytes, so the other tuples are never decoded; other files ignore
+     * it. Takes effect unless the scan is open.
+     *
+     * @param p the predicate, on fields of this table
+     */
+    public
+    void setPredicate(Predicate p)
+    {
+        DbFile file = Database.getCatalog().getDbFile(table_id);
+        if (!opened && file instanceof HeapFile)
+        {
+            tuple_iterator = ((HeapFile) file).iterator(tid, p);
+        }
+    }
+
     /**
      * constructor with table alias = table name
      * @param tid
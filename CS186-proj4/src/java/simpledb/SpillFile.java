@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write out when
+ * their input does not fit in memory, and read back in the order written.
+ * The file is in HeapFile format, pages of BufferPool.PAGE_SIZE bytes
+ * with a slot bitmap, but it is not in the Catalog and is written and read
+ * with sequential streams, not through the BufferPool.
+ * <p>
+ * Tuples are added until iterator() is called, after which the file can
+ * be read any number of times. delete() removes the file.
+ */
+public
+class SpillFile
+{
+    /**
+     * pages buffered by a reader or the writer
+     */
+    static final int BUFFER_PAGES = 8;
+
+    /**
+     * bytes an open iterator() holds: its buffer and the page it decodes
+     */
+    static final int READER_BYTES = (BUFFER_PAGES + 1) * BufferPool.PAGE_SIZE;
+
+    private final TupleDesc td;
+    private final File      file;
+    private final int       slotsPerPage;
+    private final int       headerSize;
+
+    private OutputStream out;
+    private ByteBuffer   page; // page being filled
+    private int          inPage; // tuples on page
+    private long         size;
+
+    /**
+     * Create an empty spill file in the temp directory
+     *
+     * @param td the TupleDesc of the tuples to be added
+     */
+    public
+    SpillFile(TupleDesc td) throws IOException
+    {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat");
+        file.deleteOnExit();
+        this.slotsPerPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        this.out = new BufferedOutputStream(new FileOutputStream(file), BufferPool.PAGE_SIZE * BUFFER_PAGES);
+        this.page = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        this.inPage = 0;
+        this.size = 0;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples of this file
+     */
+    public
+    TupleDesc getTupleDesc()
+    {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the file takes, counting the page being
+     * filled
+     */
+    public
+    long bytes()
+    {
+        return ((size + slotsPerPage - 1) / slotsPerPage) * BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Append a tuple
+     *
+     * @throws IllegalStateException if iterator() has been called
+     */
+    public
+    void add(Tuple t) throws IOException
+    {
+        if (out == null)
+        { throw new IllegalStateException("spill file is finished"); }
+
+        int header = page.get(inPage / 8);
+        page.put(inPage / 8, (byte) (header | 1 << (inPage % 8)));
+        page.position(headerSize + inPage * td.getSize());
+        for (int j = 0; j < td.numFields(); j++)
+        { t.getField(j).serialize(page); }
+        size++;
+
+        if (++inPage == slotsPerPage)
+        { writePage(); }
+    }
+
+    private
+    void writePage() throws IOException
+    {
+        out.write(page.array());
+        Arrays.fill(page.array(), (byte) 0);
+        inPage = 0;
+    }
+
+    /**
+     * Finish the file if it is not yet, and iterate over its tuples in the
+     * order they were added
+     */
+    public
+    DbIterator iterator() throws IOException
+    {
+        if (out != null)
+        {
+            if (inPage > 0)
+            { writePage(); }
+            out.close();
+            out = null;
+            page = null;
+        }
+        return new SpillIterator();
+    }
+
+    /**
+     * The partition a spilling operator puts a tuple with field f in. The
+     * level is mixed into the hash, so tuples of one partition are split
+     * again by partitioning them one level down.
+     *
+     * @param f      the field partitioned on
+     * @param level  times the tuples have been partitioned already
+     * @param fanout the number of partitions
+     * @return the partition, from 0 to fanout - 1
+     */
+    static
+    int partition(Field f, int level, int fanout)
+    {
+        int h = f.hashCode() ^ (level + 1) * 0x9E3779B9;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % fanout;
+    }
+
+    /**
+     * Remove the file
+     */
+    public
+    void delete()
+    {
+        if (out != null)
+        {
+            try
+            { out.close(); }
+            catch (IOException e)
+            { e.printStackTrace(); }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private
+    class SpillIterator extends Operator
+    {
+        private static final long serialVersionUID = 1L;
+
+        private DataInputStream in;
+        private ByteBuffer      page;
+        private int             slot; // next slot of page to look at
+        private long            pagesLeft;
+
+        public
+        void open() throws DbException, TransactionAbortedException
+        {
+            super.open();
+            try
+            {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                                                                 BufferPool.PAGE_SIZE * BUFFER_PAGES));
+            }
+            catch (IOException e)
+            { throw new DbException("can't open spill file: " + e); }
+            page = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            slot = slotsPerPage;
+            pagesLeft = bytes() / BufferPool.PAGE_SIZE;
+        }
+
+        protected
+        Tuple fetchNext() throws DbException, TransactionAbortedException
+        {
+            if (in == null)
+            { throw new IllegalStateException("spill file not open"); }
+            try
+            {
+                while (true)
+                {
+                    for (; slot < slotsPerPage; slot++)
+                    {
+                        if ((page.get(slot / 8) & 1 << (slot % 8)) == 0)
+                        { continue; }
+                        page.position(headerSize + slot * td.getSize());
+                        Tuple t = new Tuple(td);
+                        for (int j = 0; j < td.numFields(); j++)
+                        { t.setField(j, td.getFieldType(j).parse(page)); }
+                        slot++;
+                        return t;
+                    }
+                    if (pagesLeft == 0)
+                    { return null; }
+                    in.readFully(page.array());
+                    pagesLeft--;
+                    slot = 0;
+                }
+            }
+            catch (IOException e)
+            { throw new DbException("can't read spill file: " + e); }
+            catch (ParseException e)
+            { throw new DbException("bad spill file: " + e); }
+        }
+
+        public
+        void rewind() throws DbException, TransactionAbortedException
+        {
+            close();
+            open();
+        }
+
+        public
+        void close()
+        {
+            super.close();
+            if (in != null)
+            {
+                try
+                { in.close(); }
+                catch (IOException e)
+                { e.printStackTrace(); }
+                in = null;
+            }
+        }
+
+        public
+        TupleDesc getTupleDesc()
+        {
+            return td;
+        }
+
+        public
+        DbIterator[] getChildren()
+        {
+            return new DbIterator[0];
+        }
+
+        public
+        void setChildren(DbIterator[] children)
+        {
+        }
+    }
+}
@@ -18,8 +18,8 @@ class StringAggregator implements Aggregator
     private Type                         gbfieldtype;
     private int                          afield;
     private Op                           op;
-    private Map<Field, ArrayList<Tuple>> groupby_tuples;
-    private ArrayList<Tuple>             nogroupby_tuples;
+    private Map<Field, AggregateState> groupby_states;
+    private AggregateState             nogroupby_state;
     private boolean groupby = false;
     private String    groupName;
     private TupleDesc td;
@@ -42,8 +42,8 @@ class StringAggregator implements Aggregator
         this.afield = afield;
         this.op = what;
 
-        this.groupby_tuples = new HashMap<Field, ArrayList<Tuple>>();
-        this.nogroupby_tuples = new ArrayList<Tuple>();
+        this.groupby_states = new HashMap<Field, AggregateState>();
+        this.nogroupby_state = new AggregateState();
         this.groupName = null;
         this.td = null;
         if (gbfield != Aggregator.NO_GROUPING)
@@ -51,7 +51,8 @@ class StringAggregator implements Aggregator
     }
 
     /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
+     * Merge a new tuple into the aggregate, grouping as indicated in the constructor.
+     * Only the count of the tuple's group is updated, the tuple is not kept.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
@@ -62,20 +63,41 @@ class StringAggregator implements Aggregator
         setGroupName(tup);
         setTD(tup);
 
+        AggregateState state = nogroupby_state;
         if (groupby)
         {
             Field groupby_value = tup.getField(gbfield);
-            if (!groupby_tuples.containsKey(groupby_value))
+            state = groupby_states.get(groupby_value);
+            if (state == null)
             {
 //                System.out.format("new field: %s\n", groupby_value.toString());
-                groupby_tuples.put(groupby_value, new ArrayList<Tuple>());
+                state = new AggregateState();
+                groupby_states.put(groupby_value, state);
             }
-            groupby_tuples.get(groupby_value).add(tup);
-        }
-        else
-        {
-            nogroupby_tuples.add(tup);
         }
+        state.addRow();
+    }
+
+    /**
+     * @return the number of groups merged so far
+     */
+    public
+    int numGroups()
+    {
+        if (groupby)
+        { return groupby_states.size(); }
+        return nogroupby_state.count > 0 ? 1 : 0;
+    }
+
+    /**
+     * @return true if the group of tup has been merged already
+     */
+    public
+    boolean hasGroup(Tuple tup)
+    {
+        if (groupby)
+        { return groupby_states.containsKey(tup.getField(gbfield)); }
+        return nogroupby_state.count > 0;
     }
 
     /**
@@ -171,7 +193,7 @@ class StringAggregator implements Aggregator
             {
                 if (nogroupby_access_count > 0)
                 {
-                    next_tuple = getGroupByTuple(null, nogroupby_tuples);
+                    next_tuple = getGroupByTuple(null, nogroupby_state);
                     nogroupby_access_count = 0;
                 }
             }
@@ -181,8 +203,8 @@ class StringAggregator implements Aggregator
         /**
          * helper function to return next tuple with aggregate value
          *
-         * @param groupby_field
-         * @param tuples
+         * @param f the group-by field, null if there is no grouping
+         * @param t the AggregateState of the group
          * @return
          */
         private
@@ -194,20 +216,9 @@ class StringAggregator implements Aggregator
                 groupby_field = (Field) f;
             }
 
-            ArrayList<Tuple> tuples = (ArrayList<Tuple>) t;
-
             Tuple new_tuple = null;
 
-            int aggregate_value = 0;
-            int i, count, sum;
-            switch (op)
-            {
-                case COUNT:
-//                    System.out.format("COUNT .....\n");
-                    count = tuples.size();
-                    aggregate_value = count;
-                    break;
-            }
+            int aggregate_value = ((AggregateState) t).result(op);
 
             if (groupby)
             {
@@ -275,7 +286,7 @@ class StringAggregator implements Aggregator
 
             if (groupby)
             {
-                it = groupby_tuples.entrySet().iterator();
+                it = groupby_states.entrySet().iterator();
             }
             nogroupby_access_count = 1;
         }
@@ -310,7 +321,7 @@ class StringAggregator implements Aggregator
         {
             if (groupby)
             {
-                it = groupby_tuples.entrySet().iterator();
+                it = groupby_states.entrySet().iterator();
             }
             nogroupby_access_count = 1;
         }
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY with a LIMIT: it returns the
+ * first limit tuples of its child in the ordering, in order. Only the best
+ * limit tuples seen so far are kept, in a bounded heap whose root is the
+ * worst of them, so memory is O(limit) and time O(N log limit) for N input
+ * tuples. Ties are returned in input order, like OrderBy.
+ */
+public
+class TopN extends Operator
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * entries the heap starts with; it grows up to limit as tuples come in,
+     * so a large limit over a small input takes no more than the input
+     */
+    static final int INITIAL_HEAP = 1024;
+
+    private DbIterator child;
+    private TupleDesc  td;
+    private int        orderByField;
+    private boolean    asc;
+    private int        limit;
+    private ArrayList<Tuple> top; // the result, in order
+    private Iterator<Tuple>  it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param limit        the number of tuples to return at most.
+     * @param child        the tuples to sort.
+     */
+    public
+    TopN(int orderbyField, boolean asc, int limit, DbIterator child)
+    {
+        if (limit < 0)
+        { throw new IllegalArgumentException("negative limit " + limit); }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public
+    boolean isASC()
+    {
+        return this.asc;
+    }
+
+    public
+    int getOrderByField()
+    {
+        return this.orderByField;
+    }
+
+    /**
+     * @return the number of tuples returned at most
+     */
+    public
+    int getLimit()
+    {
+        return limit;
+    }
+
+    public
+    TupleDesc getTupleDesc()
+    {
+        return td;
+    }
+
+    public
+    void open() throws DbException, NoSuchElementException,
+                       TransactionAbortedException
+    {
+        child.open();
+        final TupleComparator comparator = new TupleComparator(orderByField, asc);
+
+        // the root of the heap is the entry to drop first: the last in the
+        // ordering, and of those the last read
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(limit, INITIAL_HEAP)), new Comparator<Entry>()
+        {
+            public
+            int compare(Entry a, Entry b)
+            {
+                int c = comparator.compare(b.tuple, a.tuple);
+                if (c != 0)
+                { return c; }
+                return a.seq < b.seq ? 1 : (a.seq == b.seq ? 0 : -1);
+            }
+        });
+
+        long seq = 0;
+        while (limit > 0 && child.hasNext())
+        {
+            Tuple t = child.next();
+            if (heap.size() < limit)
+            { heap.add(new Entry(t, seq++)); }
+            else if (comparator.compare(t, heap.peek().tuple) < 0)
+            {
+                // a tie with the root stays out, it was read later
+                Entry e = heap.poll();
+                e.tuple = t;
+                e.seq = seq++;
+                heap.add(e);
+            }
+        }
+
+        Tuple[] sorted = new Tuple[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+        { sorted[i] = heap.poll().tuple; }
+        top = new ArrayList<Tuple>(Arrays.asList(sorted));
+        it = top.iterator();
+        super.open();
+    }
+
+    public
+    void close()
+    {
+        super.close();
+        child.close();
+        it = null;
+        top = null;
+    }
+
+    public
+    void rewind() throws DbException, TransactionAbortedException
+    {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the top tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     * tuples
+     */
+    protected
+    Tuple fetchNext() throws NoSuchElementException,
+                             TransactionAbortedException, DbException
+    {
+        if (it != null && it.hasNext())
+        { return it.next(); }
+        return null;
+    }
+
+    @Override
+    public
+    DbIterator[] getChildren()
+    {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public
+    void setChildren(DbIterator[] children)
+    {
+        this.child = children[0];
+    }
+
+    /**
+     * a tuple of the heap and the order it was read in
+     */
+    private static
+    class Entry
+    {
+        Tuple tuple;
+        long  seq;
+
+        Entry(Tuple tuple, long seq)
+        {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+}
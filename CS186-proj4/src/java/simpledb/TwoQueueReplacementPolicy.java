@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Scan-resistant 2Q replacement policy.
+ * <p>
+ * 1. a page read into the pool for the first time goes to the probationary
+ * FIFO queue A1in. A sequential scan touches each page once, so its pages
+ * stay in A1in and are the first to leave the pool.
+ * 2. a page read again shortly after being evicted from A1in (its id is
+ * still remembered in the ghost queue A1out) is promoted to the hot LRU
+ * queue Am. Hits while a page is in A1in leave it there, since a scan
+ * touches its current page many times in a row (once per tuple, and again
+ * on inserts and deletes) without the page being hot.
+ * 3. victims come from A1in while A1in holds more than its share of the
+ * pool, otherwise from the least recently used end of Am.
+ * <p>
+ * So pages of small tables that are read over and over (e.g. the inner
+ * table of a join) stay in Am while a large scan streams through A1in.
+ */
+public
+class TwoQueueReplacementPolicy implements ReplacementPolicy
+{
+    private final int numPages; // size of the buffer pool
+    private final int kin; // target size of A1in
+    private final int kout; // max size of A1out
+
+    private LinkedHashMap<PageId, Boolean> a1in; // probationary pages, FIFO
+    private LinkedHashMap<PageId, Boolean> a1out; // ids of pages evicted from a1in, FIFO
+    private LinkedHashMap<PageId, Boolean> am; // hot pages, LRU order
+
+    /**
+     * @param numPages size of the buffer pool. A1in gets a quarter of the
+     *                 pool, A1out remembers half a pool of evicted ids.
+     */
+    public
+    TwoQueueReplacementPolicy(int numPages)
+    {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param numPages size of the buffer pool
+     * @param kin      target size of the probationary queue
+     * @param kout     num of evicted page ids to remember
+     */
+    public
+    TwoQueueReplacementPolicy(int numPages, int kin, int kout)
+    {
+        this.numPages = Math.max(numPages, 1);
+        this.kin = kin;
+        this.kout = kout;
+        a1in = new LinkedHashMap<PageId, Boolean>();
+        a1out = new LinkedHashMap<PageId, Boolean>();
+        am = new LinkedHashMap<PageId, Boolean>(numPages, 0.75f, true);
+    }
+
+    public synchronized
+    void admit(PageId pid)
+    {
+        if (am.containsKey(pid) || a1in.containsKey(pid))
+        {
+            access(pid);
+            return;
+        }
+        // seen recently, so it is more than a one-off scan
+        if (a1out.remove(pid) != null)
+        { am.put(pid, Boolean.TRUE); }
+        else
+        { a1in.put(pid, Boolean.TRUE); }
+    }
+
+    public synchronized
+    void access(PageId pid)
+    {
+        // a hit in A1in is correlated with the first reference, so it stays put
+        if (am.containsKey(pid))
+        {
+            am.get(pid); // access order moves it to the most recently used end
+        }
+    }
+
+    public synchronized
+    void remove(PageId pid)
+    {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized
+    PageId evict(Evictable filter)
+    {
+        PageId pid = null;
+        if (a1in.size() > kin || am.isEmpty())
+        {
+            pid = evictFrom(a1in, filter);
+            if (pid != null)
+            {
+                rememberEvicted(pid);
+                return pid;
+            }
+            return evictFrom(am, filter);
+        }
+
+        pid = evictFrom(am, filter);
+        if (pid != null)
+        { return pid; }
+        pid = evictFrom(a1in, filter);
+        if (pid != null)
+        { rememberEvicted(pid); }
+        return pid;
+    }
+
+    /**
+     * the victim goes back to the oldest end of the queue it was evicted
+     * from; a page of A1in is told apart by its id just put in A1out
+     */
+    public synchronized
+    void restore(PageId pid)
+    {
+        if (am.containsKey(pid) || a1in.containsKey(pid))
+        { return; }
+        if (a1out.remove(pid) != null)
+        {
+            LinkedHashMap<PageId, Boolean> queue = new LinkedHashMap<PageId, Boolean>();
+            queue.put(pid, Boolean.TRUE);
+            queue.putAll(a1in);
+            a1in = queue;
+        }
+        else
+        {
+            LinkedHashMap<PageId, Boolean> queue = new LinkedHashMap<PageId, Boolean>(numPages, 0.75f, true);
+            queue.put(pid, Boolean.TRUE);
+            queue.putAll(am);
+            am = queue;
+        }
+    }
+
+    public synchronized
+    int size()
+    {
+        return a1in.size() + am.size();
+    }
+
+    /**
+     * kin and kout keep their share of the pool
+     */
+    public
+    ReplacementPolicy newInstance(int numPages)
+    {
+        return new TwoQueueReplacementPolicy(numPages,
+                                             Math.max(1, (int) ((long) kin * numPages / this.numPages)),
+                                             Math.max(1, (int) ((long) kout * numPages / this.numPages)));
+    }
+
+    /**
+     * remove and return the oldest page of queue accepted by filter
+     */
+    private
+    PageId evictFrom(LinkedHashMap<PageId, Boolean> queue, Evictable filter)
+    {
+        Iterator<PageId> iter = queue.keySet().iterator();
+        while (iter.hasNext())
+        {
+            PageId pid = iter.next();
+            if (filter.canEvict(pid))
+            {
+                iter.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private
+    void rememberEvicted(PageId pid)
+    {
+        a1out.put(pid, Boolean.TRUE);
+        if (a1out.size() > kout)
+        {
+            Iterator<PageId> iter = a1out.keySet().iterator();
+            iter.next();
+            iter.remove();
+        }
+    }
+}
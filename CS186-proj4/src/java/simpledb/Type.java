@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -34,6 +36,20 @@ enum Type implements Serializable
                     }
                 }
 
+                @Override
+                public
+                Field parse(ByteBuffer buf) throws ParseException
+                {
+                    try
+                    {
+                        return new IntField(buf.getInt());
+                    }
+                    catch (BufferUnderflowException e)
+                    {
+                        throw new ParseException("couldn't parse", 0);
+                    }
+                }
+
                 public String toString()
                 {
                     return "INT_TYPE";
@@ -68,6 +84,26 @@ enum Type implements Serializable
                 }
             }
 
+            @Override
+            public
+            Field parse(ByteBuffer buf) throws ParseException
+            {
+                try
+                {
+                    int  strLen = buf.getInt();
+                    if (strLen < 0 || strLen > STRING_LEN)
+                    { throw new ParseException("bad string length " + strLen, 0); }
+                    byte bs[]   = new byte[strLen];
+                    buf.get(bs);
+                    buf.position(buf.position() + STRING_LEN - strLen);
+                    return new StringField(new String(bs), STRING_LEN);
+                }
+                catch (BufferUnderflowException e)
+                {
+                    throw new ParseException("couldn't parse", 0);
+                }
+            }
+
             public String toString()
             {
                 return "STRING_TYPE";
@@ -92,4 +128,14 @@ enum Type implements Serializable
     public abstract
     Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Same as parse(DataInputStream), reading from the current position of
+     * buf and advancing it by getLen() bytes.
+     *
+     * @param buf The buffer to read from
+     * @throws ParseException if the data can't be parsed as this type.
+     */
+    public abstract
+    Field parse(ByteBuffer buf) throws ParseException;
+
 }
@@ -246,6 +246,55 @@ class AggregateTest extends SimpleDbTestBase
         TestUtil.matchAllTuples(min, op);
     }
 
+    /**
+     * Unit test for Aggregate.getNext() when the groups do not fit the
+     * memory budget and are spilled, more than one level deep
+     */
+    @Test
+    public
+    void spilledGroupBy() throws Exception
+    {
+        int[] data = new int[2000 * 3 * width1];
+        for (int i = 0; i < data.length / width1; i++)
+        {
+            data[i * width1] = i % 2000;
+            data[i * width1 + 1] = i;
+        }
+
+        Aggregate op = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, Aggregator.Op.SUM);
+        op.setMemoryBudget(10 * (Aggregate.GROUP_OVERHEAD + Type.INT_TYPE.getLen()));
+        op.open();
+        for (int pass = 0; pass < 2; pass++)
+        {
+            boolean[] seen = new boolean[2000];
+            int       n    = 0;
+            while (op.hasNext())
+            {
+                Tuple t     = op.next();
+                int   group = ((IntField) t.getField(0)).getValue();
+                assertTrue(!seen[group]);
+                seen[group] = true;
+                assertEquals(3 * group + 6000, ((IntField) t.getField(1)).getValue());
+                n++;
+            }
+            assertEquals(2000, n);
+            op.rewind();
+        }
+
+        // rewound once the groups in memory were dropped, part way through the partitions
+        for (int i = 0; i < 1500; i++)
+        { op.next(); }
+        op.rewind();
+        int n = 0;
+        while (op.hasNext())
+        {
+            op.next();
+            n++;
+        }
+        assertEquals(2000, n);
+        op.close();
+    }
+
     /**
      * JUnit suite target
      */
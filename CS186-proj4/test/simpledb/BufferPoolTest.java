@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public
+class BufferPoolTest extends TestUtil.CreateHeapFile
+{
+    private static final int THREADS = 8;
+
+    private PageId p0, p1, p2;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public
+    void setUp() throws Exception
+    {
+        super.setUp();
+
+        // three pages on disk, none of them in the pool
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i)
+        {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        this.p2 = new HeapPageId(empty.getId(), 2);
+    }
+
+    /**
+     * Threads that miss on the same page at once share a single read of it.
+     */
+    @Test
+    public
+    void concurrentMissesReadOnce() throws Exception
+    {
+        final BufferPool    bp      = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final CyclicBarrier start   = new CyclicBarrier(THREADS);
+        final Page[]        found   = new Page[THREADS];
+        Thread[]            readers = new Thread[THREADS];
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            final int n = i;
+            readers[i] = new Thread()
+            {
+                public
+                void run()
+                {
+                    try
+                    {
+                        start.await();
+                        found[n] = bp.getPage(new TransactionId(), p0, Permissions.READ_ONLY);
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers)
+        { reader.join(); }
+
+        assertEquals(1, bp.getMissCount());
+        assertEquals(THREADS - 1, bp.getHitCount());
+        for (Page page : found)
+        { assertSame(found[0], page); }
+    }
+
+    /**
+     * A full pool evicts the least recently used page, including hits that
+     * are still queued for the policy.
+     */
+    @Test
+    public
+    void evictLeastRecentlyUsed() throws Exception
+    {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.getPage(null, p0, Permissions.READ_ONLY);
+        bp.getPage(null, p1, Permissions.READ_ONLY);
+        bp.getPage(null, p0, Permissions.READ_ONLY);
+        bp.getPage(null, p2, Permissions.READ_ONLY);
+
+        assertTrue(bp.containsPage(p0));
+        assertFalse(bp.containsPage(p1));
+        assertTrue(bp.containsPage(p2));
+        assertEquals(3, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * Small pools keep one shard by default; an explicit shard count splits
+     * the pool, and every page is still found once it is read.
+     */
+    @Test
+    public
+    void shards() throws Exception
+    {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(2, new BufferPool(2, 8).getNumShards());
+
+        BufferPool bp = new BufferPool(BufferPool.DEFAULT_PAGES, 4);
+        assertEquals(4, bp.getNumShards());
+        for (PageId pid : new PageId[]{p0, p1, p2, p0, p1, p2})
+        { bp.getPage(null, pid, Permissions.READ_ONLY); }
+
+        assertTrue(bp.containsPage(p0));
+        assertTrue(bp.containsPage(p1));
+        assertTrue(bp.containsPage(p2));
+        assertEquals(3, bp.getMissCount());
+        assertEquals(3, bp.getHitCount());
+    }
+
+    /**
+     * Under NO-STEAL, a transaction may dirty more pages than one shard
+     * holds as long as the pool has room: a shard whose pages all have to
+     * stay borrows a slot of another shard.
+     */
+    @Test
+    public
+    void dirtyPagesFillEveryShard() throws Exception
+    {
+        // one slot per shard; p0 and p2 hash two apart, into the same shard
+        BufferPool    bp  = new BufferPool(2, 2);
+        TransactionId tid = new TransactionId();
+        assertEquals(2, bp.getNumShards());
+        for (PageId pid : new PageId[]{p0, p2})
+        { bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid); }
+
+        assertTrue(bp.containsPage(p0));
+        assertTrue(bp.containsPage(p2));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Flushing a transaction writes its consecutive dirty pages in a single
+     * write and leaves them clean.
+     */
+    @Test
+    public
+    void flushCoalescesConsecutivePages() throws Exception
+    {
+        BufferPool    bp     = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid    = new TransactionId();
+        PageWriter    writer = bp.getPageWriter();
+        Page[]        pages  = new Page[3];
+        int           i      = 0;
+        for (PageId pid : new PageId[]{p2, p0, p1})
+        {
+            pages[i] = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            pages[i++].markDirty(true, tid);
+        }
+
+        bp.flushPages(tid);
+        assertEquals(1, writer.getWriteCount());
+        assertEquals(3, writer.getPagesWritten());
+        for (Page page : pages)
+        {
+            assertNull(page.isDirty());
+            assertArrayEquals(page.getPageData(), empty.readPage(page.getId()).getPageData());
+        }
+        bp.transactionComplete(tid);
+        assertEquals(1, writer.getWriteCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -149,45 +151,45 @@ class DeadlockTest extends TestUtil.CreateHeapFile
         System.out.println("testWriteWriteDeadlock -----------");
         System.out.println("testWriteWriteDeadlock constructing deadlock:");
 
-//        LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
-//        LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
-//
-//        // allow initial write locks to acquire
-//        Thread.sleep(POLL_INTERVAL);
-//
-//        LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
-//        LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
-//
-//        while (true)
-//        {
-//            Thread.sleep(POLL_INTERVAL);
-//
-//            assertFalse(lg1Write1.acquired() && lg2Write0.acquired());
-//            if (lg1Write1.acquired() && !lg2Write0.acquired()) { break; }
-//            if (!lg1Write1.acquired() && lg2Write0.acquired()) { break; }
-//
-//            if (lg1Write1.getError() != null)
-//            {
-//                lg1Write0.stop(); lg1Write1.stop();
-//                bp.transactionComplete(tid1);
-//                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
-//
-//                tid1 = new TransactionId();
-//                lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
-//                lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
-//            }
-//
-//            if (lg2Write0.getError() != null)
-//            {
-//                lg2Write0.stop(); lg2Write1.stop();
-//                bp.transactionComplete(tid2);
-//                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
-//
-//                tid2 = new TransactionId();
-//                lg2Write0 = startGrabber(tid2, p1, Permissions.READ_WRITE);
-//                lg2Write1 = startGrabber(tid2, p0, Permissions.READ_WRITE);
-//            }
-//        }
+        LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+
+        // allow initial write locks to acquire
+        Thread.sleep(POLL_INTERVAL);
+
+        LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+        LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+        while (true)
+        {
+            Thread.sleep(POLL_INTERVAL);
+
+            assertFalse(lg1Write1.acquired() && lg2Write0.acquired());
+            if (lg1Write1.acquired() && !lg2Write0.acquired()) { break; }
+            if (!lg1Write1.acquired() && lg2Write0.acquired()) { break; }
+
+            if (lg1Write1.getError() != null)
+            {
+                lg1Write0.stop(); lg1Write1.stop();
+                bp.transactionComplete(tid1);
+                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
+
+                tid1 = new TransactionId();
+                lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+                lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+            }
+
+            if (lg2Write0.getError() != null)
+            {
+                lg2Write0.stop(); lg2Write1.stop();
+                bp.transactionComplete(tid2);
+                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
+
+                tid2 = new TransactionId();
+                lg2Write0 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+                lg2Write1 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+            }
+        }
 
         System.out.println("testWriteWriteDeadlock resolved deadlock");
     }
@@ -204,49 +206,75 @@ class DeadlockTest extends TestUtil.CreateHeapFile
         System.out.format("testUpgradeWriteDeadlock -----------\n");
         System.out.println("testUpgradeWriteDeadlock constructing deadlock:");
 
-//        LockGrabber lg1Read = startGrabber(tid1, p0, Permissions.READ_ONLY);
-//        LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
-//
-//        // allow read locks to acquire
-//        Thread.sleep(POLL_INTERVAL);
-//
-//        LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
-//        LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
-//
-//        while (true)
-//        {
-//            Thread.sleep(POLL_INTERVAL);
-//
-//            assertFalse(lg1Write.acquired() && lg2Write.acquired());
-//            if (lg1Write.acquired() && !lg2Write.acquired()) { break; }
-//            if (!lg1Write.acquired() && lg2Write.acquired()) { break; }
-//
-//            if (lg1Write.getError() != null)
-//            {
-//                lg1Read.stop(); lg1Write.stop();
-//                bp.transactionComplete(tid1);
-//                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
-//
-//                tid1 = new TransactionId();
-//                lg1Read = startGrabber(tid1, p0, Permissions.READ_ONLY);
-//                lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
-//            }
-//
-//            if (lg2Write.getError() != null)
-//            {
-//                lg2Read.stop(); lg2Write.stop();
-//                bp.transactionComplete(tid2);
-//                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
-//
-//                tid2 = new TransactionId();
-//                lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
-//                lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
-//            }
-//        }
+        LockGrabber lg1Read = startGrabber(tid1, p0, Permissions.READ_ONLY);
+        LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+
+        // allow read locks to acquire
+        Thread.sleep(POLL_INTERVAL);
+
+        LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+        while (true)
+        {
+            Thread.sleep(POLL_INTERVAL);
+
+            assertFalse(lg1Write.acquired() && lg2Write.acquired());
+            if (lg1Write.acquired() && !lg2Write.acquired()) { break; }
+            if (!lg1Write.acquired() && lg2Write.acquired()) { break; }
+
+            if (lg1Write.getError() != null)
+            {
+                lg1Read.stop(); lg1Write.stop();
+                bp.transactionComplete(tid1);
+                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
+
+                tid1 = new TransactionId();
+                lg1Read = startGrabber(tid1, p0, Permissions.READ_ONLY);
+                lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+            }
+
+            if (lg2Write.getError() != null)
+            {
+                lg2Read.stop(); lg2Write.stop();
+                bp.transactionComplete(tid2);
+                Thread.sleep(rand.nextInt(WAIT_INTERVAL));
+
+                tid2 = new TransactionId();
+                lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+                lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+            }
+        }
 
         System.out.println("testUpgradeWriteDeadlock resolved deadlock");
     }
 
+    /**
+     * The wait-for graph finds the deadlock as soon as it forms and aborts
+     * only the victim (the youngest, by default); the other transaction gets
+     * its lock once the victim has released its locks.
+     */
+    @Test
+    public
+    void testYoungestVictim() throws Exception
+    {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+
+        LockGrabber lg1Write = startGrabber(tid1, p1, Permissions.READ_WRITE);
+        Thread.sleep(POLL_INTERVAL);
+        LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+        lg2Write.join(POLL_INTERVAL * 10);
+        lg1Write.join(POLL_INTERVAL * 10);
+
+        assertTrue(lg2Write.getError() instanceof TransactionAbortedException);
+        assertTrue(lg1Write.acquired());
+        assertNull(lg1Write.getError());
+        assertEquals(1, bp.getDeadlockCount());
+        assertTrue(bp.getMaxDeadlockDetectionNanos() > 0);
+        bp.transactionComplete(tid1);
+    }
+
     /**
      * JUnit suite target
      */
@@ -94,6 +94,88 @@ class HeapFileReadTest extends SimpleDbTestBase
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public
+    void readPageMemoryMapped() throws Exception
+    {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(hf.getId(), mapped.getId());
+
+        HeapPageId pid        = new HeapPageId(hf.getId(), 0);
+        HeapPage   page       = (HeapPage) hf.readPage(pid);
+        HeapPage   mappedPage = (HeapPage) mapped.readPage(pid);
+        assertEquals(484, mappedPage.getNumEmptySlots());
+        assertTrue(Arrays.equals(page.getPageData(), mappedPage.getPageData()));
+        assertTrue(Arrays.equals(page.getPageData(), mappedPage.getBeforeImage().getPageData()));
+
+        // a page written back goes through the normal read path
+        mappedPage.deleteTuple(mappedPage.iterator().next());
+        mapped.writePage(mappedPage);
+        assertEquals(485, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+        assertEquals(484, mappedPage.getBeforeImage().getNumEmptySlots());
+        mapped.close();
+    }
+
+    /**
+     * Unit test for PageReadAhead: staged pages are handed to readPage(),
+     * and dropped when the page is written
+     */
+    @Test
+    public
+    void readAhead() throws Exception
+    {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 484 * 4, null, null);
+        assertEquals(4, big.numPages());
+
+        PageReadAhead ra = new PageReadAhead(big);
+        ra.prefetch(1, 2);
+        HeapPage staged = (HeapPage) ra.take(1);
+        assertNotNull(staged);
+        assertTrue(Arrays.equals(
+                big.readPage(new HeapPageId(big.getId(), 1)).getPageData(), staged.getPageData()));
+        assertNull(ra.take(1));
+        assertNotNull(ra.take(2));
+        assertNull(ra.take(3));
+
+        ra.prefetch(3, 10); // stops at the end of the file
+        ra.invalidate(3);
+        assertNull(ra.take(3));
+    }
+
+    /**
+     * A scan that stops early drops the pages it had staged, so read-ahead
+     * keeps working for the next scans
+     */
+    @Test
+    public
+    void readAheadDroppedOnClose() throws Exception
+    {
+        HeapFile      big = SystemTestUtil.createRandomHeapFile(2, 484 * 20, null, null);
+        PageReadAhead ra  = big.getReadAhead();
+        for (int scan = 0; scan < 4; scan++)
+        {
+            DbFileIterator it = big.iterator(tid);
+            it.open();
+            for (int i = 0; i <= 484 * 2; i++) // into the 3rd page
+            { it.next(); }
+            assertTrue(ra.numStaged() > 0);
+            if (scan % 2 == 0)
+            { it.close(); }
+            else
+            {
+                it.rewind();
+                it.close();
+            }
+            assertEquals(0, ra.numStaged());
+            Database.getBufferPool().transactionComplete(tid);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
     @Test
     public
     void testIteratorBasic() throws Exception
@@ -7,6 +7,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 public
 class HeapFileWriteTest extends TestUtil.CreateHeapFile
@@ -58,6 +59,30 @@ class HeapFileWriteTest extends TestUtil.CreateHeapFile
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() on a file whose first pages are
+     * full: the insert goes to the page with space, without locking the
+     * full ones, and reuses space freed by a delete
+     */
+    @Test
+    public
+    void addTupleSkipsFullPages() throws Exception
+    {
+        HeapFile   hf    = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        HeapPageId page0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId page2 = new HeapPageId(hf.getId(), 2);
+
+        Page modified = hf.insertTuple(tid, Utility.getHeapTuple(1, 2)).get(0);
+        assertEquals(page2, modified.getId());
+        assertFalse(Database.getBufferPool().holdsLock(tid, page0));
+
+        HeapPage full = (HeapPage) Database.getBufferPool().getPage(tid, page0, Permissions.READ_WRITE);
+        hf.deleteTuple(tid, full.iterator().next());
+        modified = hf.insertTuple(tid, Utility.getHeapTuple(2, 2)).get(0);
+        assertEquals(page0, modified.getId());
+        assertEquals(3, hf.numPages());
+    }
+
     /**
      * JUnit suite target
      */
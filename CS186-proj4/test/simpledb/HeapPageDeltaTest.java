@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public
+class HeapPageDeltaTest extends SimpleDbTestBase
+{
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public
+    void addTable() throws IOException
+    {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * An insert and a delete are two slots of the delta, redo turns the
+     * before image into the after image and undo turns it back.
+     */
+    @Test
+    public
+    void redoUndo() throws Exception
+    {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after  = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.deleteTuple(after.getTuple(1));
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+        after.insertTuple(Utility.getHeapTuple(43, 2));
+
+        HeapPageDelta delta = HeapPageDelta.diff(before, after);
+        assertEquals(2, delta.size()); // the first insert took the slot of the deleted tuple
+        assertEquals(pid, delta.getPageId());
+        assertTrue(Arrays.equals(after.getPageData(), delta.redo(before).getPageData()));
+        assertTrue(Arrays.equals(before.getPageData(), delta.undo(after).getPageData()));
+
+        // redo and undo set slots, doing them twice changes nothing
+        assertTrue(Arrays.equals(after.getPageData(), delta.redo(delta.redo(before)).getPageData()));
+    }
+
+    /**
+     * A delta reads back as written, skip() passes over the same bytes, and
+     * a one tuple insert takes a few dozen bytes rather than two pages.
+     */
+    @Test
+    public
+    void writeRead() throws Exception
+    {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after  = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream      out   = new DataOutputStream(bytes);
+        HeapPageDelta.diff(before, after).write(out);
+        out.writeInt(-1);
+        assertTrue(bytes.size() < 64);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HeapPageDelta   read = HeapPageDelta.read(in);
+        assertEquals(-1, in.readInt());
+        assertTrue(Arrays.equals(after.getPageData(), read.redo(before).getPageData()));
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HeapPageDelta.skip(in);
+        assertEquals(-1, in.readInt());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(HeapPageDeltaTest.class);
+    }
+}
@@ -120,6 +120,59 @@ class HeapPageReadTest extends SimpleDbTestBase
         }
     }
 
+    /**
+     * Unit test for HeapPage.getInt(), which reads fields without decoding
+     * the tuple, and getPageData() of a page whose tuples were never decoded
+     */
+    @Test
+    public
+    void getInt() throws Exception
+    {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++)
+        {
+            assertEquals(EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            assertEquals(EXAMPLE_VALUES[row][1], page.getInt(row, 1));
+        }
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        page.getTuple(3).setField(1, new IntField(7));
+        assertEquals(7, page.getInt(3, 1));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate), which decodes only the
+     * tuples the predicate accepts, and for the page not sharing the array
+     * it was read from
+     */
+    @Test
+    public
+    void filteredIterator() throws Exception
+    {
+        byte[]    data = EXAMPLE_DATA.clone();
+        HeapPage  page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0);
+        Predicate p    = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+
+        Iterator<Tuple> it = page.iterator(p);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++)
+        {
+            if (EXAMPLE_VALUES[row][0] <= 30000)
+            {
+                assertFalse(page.matches(row, p));
+                continue;
+            }
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), t.getField(0));
+            assertEquals(row, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+        // 31933 passed and was decoded, 1468 was not
+        assertTrue(page.tuples[0] != null);
+        assertTrue(page.tuples[2] == null);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -103,6 +105,68 @@ class HeapPageWriteTest extends SimpleDbTestBase
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() and getPageBuffer() after the
+     * page changed: the image must be serialized again and read back
+     * to the same tuples
+     */
+    @Test
+    public
+    void getPageDataAfterChange() throws Exception
+    {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData()));
+
+        page.deleteTuple(page.getTuple(1));
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+
+        byte[]     data = page.getPageData();
+        ByteBuffer buf  = page.getPageBuffer();
+        assertEquals(BufferPool.PAGE_SIZE, buf.remaining());
+        for (int i = 0; i < data.length; i++)
+        { assertEquals(data[i], buf.get(i)); }
+
+        HeapPage copy = new HeapPage(pid, data);
+        assertEquals(7, copy.getInt(1, 0));
+        assertEquals(10, copy.getInt(20, 1));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[2][1], copy.getInt(2, 1));
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() after a tuple is changed in
+     * place, and for a buffer from getPageBuffer() staying as it was when
+     * the page changes again
+     */
+    @Test
+    public
+    void getPageDataAfterChangeInPlace() throws Exception
+    {
+        HeapPage   page   = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        ByteBuffer before = page.getPageBuffer();
+
+        page.getTuple(3).setField(1, new IntField(7));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(7, copy.getInt(3, 1));
+
+        ByteBuffer after = page.getPageBuffer();
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+        page.getPageBuffer();
+        copy = new HeapPage(pid, toArray(after));
+        assertEquals(7, copy.getInt(3, 1));
+        assertEquals(484, copy.getNumEmptySlots());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, toArray(before)));
+    }
+
+    private static
+    byte[] toArray(ByteBuffer buf)
+    {
+        byte[] data = new byte[buf.remaining()];
+        buf.duplicate().get(data);
+        return data;
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -156,6 +156,26 @@ class IntegerAggregatorTest extends SimpleDbTestBase
         }
     }
 
+    /**
+     * Test that an avg keeps its sum wider than an int, so values near
+     * Integer.MAX_VALUE do not overflow
+     */
+    @Test
+    public
+    void mergeAvgLarge() throws Exception
+    {
+        int        big  = Integer.MAX_VALUE - 1;
+        DbIterator scan = TestUtil.createTupleList(width1, new int[]{1, big, 1, big, 1, big});
+        scan.open();
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+        while (scan.hasNext())
+        { agg.mergeTupleIntoGroup(scan.next()); }
+
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[]{1, big}), it);
+    }
+
     /**
      * Test IntegerAggregator.iterator() for DbIterator behaviour
      */
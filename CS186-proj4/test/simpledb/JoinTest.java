@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -141,6 +143,94 @@ class JoinTest extends SimpleDbTestBase
         TestUtil.matchAllTuples(eqJoin, op);
     }
 
+    /**
+     * check that op returns every pair of tuples of build (key, i) and
+     * probe (key, i) with equal keys once, over two passes
+     */
+    private
+    void checkJoin(DbIterator op, int[] build, int[] probe) throws Exception
+    {
+        int expected = 0;
+        for (int i = 0; i < build.length; i += 2)
+        {
+            for (int j = 0; j < probe.length; j += 2)
+            {
+                if (build[i] == probe[j])
+                { expected++; }
+            }
+        }
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            HashSet<Long> seen = new HashSet<Long>();
+            while (op.hasNext())
+            {
+                Tuple t = op.next();
+                int   b = ((IntField) t.getField(1)).getValue();
+                int   p = ((IntField) t.getField(3)).getValue();
+                assertEquals(t.getField(0), t.getField(2));
+                assertEquals(new IntField(build[2 * b]), t.getField(0));
+                assertEquals(new IntField(probe[2 * p]), t.getField(2));
+                assertTrue(seen.add((long) b << 32 | p));
+            }
+            assertEquals(expected, seen.size());
+            op.rewind();
+        }
+    }
+
+    /**
+     * @return n tuples (i % keys, i)
+     */
+    private
+    int[] keyed(int n, int keys)
+    {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++)
+        {
+            data[2 * i] = i % keys;
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    /**
+     * Unit test for an = Join whose child1 is partitioned to disk, more
+     * than once
+     */
+    @Test
+    public
+    void spilledEqJoin() throws Exception
+    {
+        int[] build = keyed(3000, 1000);
+        int[] probe = keyed(2000, 1500);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join op = new Join(pred, TestUtil.createTupleList(2, build), TestUtil.createTupleList(2, probe));
+        op.setMemoryBudget(100 * (HybridHashJoin.TUPLE_OVERHEAD + 2 * HybridHashJoin.FIELD_OVERHEAD + 8));
+        op.open();
+        assertTrue(op.numSpilled() > 0);
+        checkJoin(op, build, probe);
+        op.close();
+    }
+
+    /**
+     * Unit test for a spilled HashEquiJoin whose keys are all equal, so
+     * partitioning stops at the last level
+     */
+    @Test
+    public
+    void spilledHashEquiJoinOneKey() throws Exception
+    {
+        int[] build = keyed(500, 1);
+        int[] probe = keyed(3, 1);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(2, build),
+                                           TestUtil.createTupleList(2, probe));
+        op.setMemoryBudget(1000);
+        op.open();
+        checkJoin(op, build, probe);
+        op.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -250,6 +250,39 @@ class LockingTest extends TestUtil.CreateHeapFile
         bp.getPage(tid1, p1, Permissions.READ_WRITE);
     }
 
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * A reader that comes after a queued writer waits behind it, and both
+     * are granted in order once the first reader commits.
+     */
+    @Test
+    public
+    void queuedWriterGoesFirst() throws Exception
+    {
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+
+        TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        writer.start();
+        Thread.sleep(TIMEOUT);
+        TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+        reader.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(false, writer.acquired());
+        assertEquals(false, reader.acquired());
+
+        bp.transactionComplete(tid1);
+        writer.join(TIMEOUT * 10);
+        assertEquals(true, writer.acquired());
+        assertEquals(false, reader.acquired());
+
+        bp.transactionComplete(tid2);
+        reader.join(TIMEOUT * 10);
+        assertEquals(true, reader.acquired());
+        assertNull(reader.getError());
+        bp.transactionComplete(tid3);
+    }
+
     /**
      * JUnit suite target
      */
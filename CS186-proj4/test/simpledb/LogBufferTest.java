@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public
+class LogBufferTest
+{
+    private File             file;
+    private RandomAccessFile raf;
+
+    @Before
+    public
+    void setUp() throws Exception
+    {
+        file = File.createTempFile("logbuffer", ".log");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public
+    void tearDown() throws Exception
+    {
+        raf.close();
+        file.delete();
+    }
+
+    /**
+     * Records read back as RandomAccessFile wrote them, and a buffer's worth
+     * of records takes a single write.
+     */
+    @Test
+    public
+    void recordsReadBack() throws Exception
+    {
+        raf.writeLong(-1);
+        LogBuffer out = new LogBuffer(raf.getChannel(), raf.length(), 1 << 16);
+        for (int i = 0; i < 1000; i++)
+        {
+            out.writeInt(i);
+            out.writeLong(-i);
+            out.writeUTF("simpledb.HeapPage");
+        }
+        assertEquals(0, raf.length() - 8);
+        out.flush();
+        assertEquals(1, out.getWriteCount());
+        assertEquals(out.position(), raf.length());
+
+        raf.seek(8);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(i, raf.readInt());
+            assertEquals(-i, raf.readLong());
+            assertEquals("simpledb.HeapPage", raf.readUTF());
+        }
+    }
+
+    /**
+     * A full buffer is written out, and data larger than the buffer is
+     * written through, in order.
+     */
+    @Test
+    public
+    void overflow() throws Exception
+    {
+        LogBuffer out   = new LogBuffer(raf.getChannel(), 0, 16);
+        byte[]    large = new byte[100];
+        for (int i = 0; i < large.length; i++)
+        { large[i] = (byte) i; }
+
+        out.writeLong(1);
+        out.writeLong(2);
+        out.writeLong(3); // does not fit, the first two are written
+        out.write(large);
+        out.writeInt(4);
+        out.flush();
+        assertTrue(out.getWriteCount() <= 4);
+        assertEquals(8 * 3 + 100 + 4, raf.length());
+
+        raf.seek(0);
+        assertEquals(1, raf.readLong());
+        assertEquals(2, raf.readLong());
+        assertEquals(3, raf.readLong());
+        byte[] read = new byte[100];
+        raf.readFully(read);
+        for (int i = 0; i < read.length; i++)
+        { assertEquals((byte) i, read[i]); }
+        assertEquals(4, raf.readInt());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public
+class LogFileTest extends SimpleDbTestBase
+{
+    private File             file;
+    private RandomAccessFile raf;
+    private LogFile          log;
+    private HeapPage         page;
+
+    @Before
+    public
+    void setUp() throws Exception
+    {
+        super.setUp();
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        page = new HeapPage(new HeapPageId(-1, 3), HeapPageReadTest.EXAMPLE_DATA);
+
+        file = File.createTempFile("logfile", ".log");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        log = new LogFile(File.createTempFile("logfile", ".log"));
+    }
+
+    @After
+    public
+    void tearDown() throws Exception
+    {
+        raf.close();
+        file.delete();
+        log.logFile.delete();
+    }
+
+    /**
+     * Page data of a registered class is written with type codes and
+     * reads back to the same page.
+     */
+    @Test
+    public
+    void typeCodes() throws Exception
+    {
+        log.writePageData(raf, page);
+        raf.writeInt(-1);
+        assertEquals(2 + 2 + 4 + 2 * 4 + 4 + BufferPool.PAGE_SIZE + 4, raf.length());
+
+        raf.seek(0);
+        assertEquals(LogFile.TYPE_CODE_FLAG, raf.readUnsignedShort() & LogFile.TYPE_CODE_FLAG);
+        raf.seek(0);
+        Page read = log.readPageData(raf);
+        assertEquals(-1, raf.readInt());
+        assertEquals(page.getId(), read.getId());
+        assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+
+        raf.seek(0);
+        log.skipPageData(raf);
+        assertEquals(-1, raf.readInt());
+    }
+
+    /**
+     * Page data naming its classes, as logs were written before type
+     * codes, is still read and skipped.
+     */
+    @Test
+    public
+    void classNames() throws Exception
+    {
+        raf.writeUTF(HeapPage.class.getName());
+        raf.writeUTF(HeapPageId.class.getName());
+        int[] id = page.getId().serialize();
+        raf.writeInt(id.length);
+        for (int i : id)
+        { raf.writeInt(i); }
+        raf.writeInt(BufferPool.PAGE_SIZE);
+        raf.write(page.getPageData());
+        raf.writeInt(-1);
+
+        raf.seek(0);
+        Page read = log.readPageData(raf);
+        assertEquals(-1, raf.readInt());
+        assertEquals(page.getId(), read.getId());
+        assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+
+        raf.seek(0);
+        log.skipPageData(raf);
+        assertEquals(-1, raf.readInt());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
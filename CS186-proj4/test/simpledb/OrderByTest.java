@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public
+class OrderByTest extends SimpleDbTestBase
+{
+    int   width1 = 2;
+    int[] data;
+
+    /**
+     * Initialize each unit test: 2000 tuples with random keys in field 0
+     * and their position in field 1
+     */
+    @Before
+    public
+    void createData()
+    {
+        Random r = new Random(186);
+        data = new int[2000 * width1];
+        for (int i = 0; i < data.length / width1; i++)
+        {
+            data[i * width1] = r.nextInt(500);
+            data[i * width1 + 1] = i;
+        }
+    }
+
+    /**
+     * check that op returns every tuple of data once, ordered on field 0
+     */
+    private
+    void checkSorted(DbIterator op, boolean asc) throws Exception
+    {
+        boolean[] seen = new boolean[data.length / width1];
+        int       last = asc ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < seen.length; i++)
+        {
+            assertTrue(op.hasNext());
+            Tuple t   = op.next();
+            int   key = ((IntField) t.getField(0)).getValue();
+            int   pos = ((IntField) t.getField(1)).getValue();
+            assertTrue(asc ? key >= last : key <= last);
+            assertEquals(data[pos * width1], key);
+            assertFalse(seen[pos]);
+            seen[pos] = true;
+            last = key;
+        }
+        assertFalse(op.hasNext());
+    }
+
+    /**
+     * Unit test for OrderBy when the input fits the memory budget
+     */
+    @Test
+    public
+    void inMemory() throws Exception
+    {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width1, data));
+        op.open();
+        assertEquals(0, op.numRuns());
+        checkSorted(op, true);
+        op.rewind();
+        checkSorted(op, true);
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy when the input is spilled to sorted runs
+     */
+    @Test
+    public
+    void external() throws Exception
+    {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width1, data));
+        op.setMemoryBudget(200 * (OrderBy.TUPLE_OVERHEAD + 2 * OrderBy.FIELD_OVERHEAD + 8));
+        op.open();
+        assertTrue(op.numRuns() > 1);
+        checkSorted(op, true);
+        op.rewind();
+        checkSorted(op, true);
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy descending, with too many runs to merge at once
+     */
+    @Test
+    public
+    void externalMultiPass() throws Exception
+    {
+        OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(width1, data));
+        op.setMemoryBudget(1000);
+        op.open();
+        checkSorted(op, false);
+        op.close();
+
+        // reopening sorts the input again, not twice
+        op.open();
+        checkSorted(op, false);
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
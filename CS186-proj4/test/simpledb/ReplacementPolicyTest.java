@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ReplacementPolicyTest {
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static final ReplacementPolicy.Evictable NONE = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return false;
+        }
+    };
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for LRUReplacementPolicy.evict()
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy lru = new LRUReplacementPolicy();
+        lru.admit(pid(0));
+        lru.admit(pid(1));
+        lru.admit(pid(2));
+        lru.access(pid(0));
+
+        assertEquals(pid(1), lru.evict(ANY));
+        assertEquals(pid(2), lru.evict(ANY));
+        assertEquals(pid(0), lru.evict(ANY));
+        assertNull(lru.evict(ANY));
+    }
+
+    /**
+     * Unit test for LRUReplacementPolicy.evict() with pages that can't be evicted
+     */
+    @Test public void lruSkipsPinnedPages() {
+        ReplacementPolicy lru = new LRUReplacementPolicy();
+        lru.admit(pid(0));
+        lru.admit(pid(1));
+        ReplacementPolicy.Evictable notZero = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId p) {
+                return p.pageNumber() != 0;
+            }
+        };
+
+        assertEquals(pid(1), lru.evict(notZero));
+        assertNull(lru.evict(notZero));
+        assertNull(lru.evict(NONE));
+        assertEquals(1, lru.size());
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.evict()
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy clock = new ClockReplacementPolicy(2);
+        clock.admit(pid(0));
+        clock.admit(pid(1));
+        clock.admit(pid(2)); // grows past the initial frames
+
+        // every page is referenced, so the first sweep only clears bits
+        assertEquals(pid(0), clock.evict(ANY));
+
+        // pid(1) gets referenced again and survives the next sweep
+        clock.access(pid(1));
+        assertEquals(pid(2), clock.evict(ANY));
+        assertEquals(pid(1), clock.evict(ANY));
+        assertNull(clock.evict(ANY));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.remove() and evict() with pages that can't be evicted
+     */
+    @Test public void clockRemoveAndPinned() {
+        ReplacementPolicy clock = new ClockReplacementPolicy();
+        clock.admit(pid(0));
+        clock.admit(pid(1));
+        clock.remove(pid(0));
+        assertEquals(1, clock.size());
+        assertNull(clock.evict(NONE));
+
+        clock.admit(pid(2)); // reuses the frame of pid(0)
+        assertEquals(2, clock.size());
+        assertEquals(pid(1), clock.evict(ANY));
+        assertEquals(pid(2), clock.evict(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: pages touched again while in
+     * A1in, as a scan does, are evicted first; pages read again after
+     * being evicted are kept
+     */
+    @Test public void twoQueueIsScanResistant() {
+        ReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4, 1, 2);
+        twoQ.admit(pid(0));
+        twoQ.access(pid(0)); // back-to-back hits leave it in A1in
+        twoQ.admit(pid(1));
+        assertEquals(pid(0), twoQ.evict(ANY));
+
+        // pid(0) is remembered in A1out, so it comes back as a hot page
+        twoQ.admit(pid(0));
+        twoQ.admit(pid(2));
+        twoQ.admit(pid(3));
+        assertEquals(pid(1), twoQ.evict(ANY));
+        assertEquals(pid(2), twoQ.evict(ANY));
+        // A1in is within its share now, so Am gives up its LRU page
+        assertEquals(pid(0), twoQ.evict(ANY));
+
+        twoQ.admit(pid(1)); // still in A1out
+        twoQ.admit(pid(4));
+        assertEquals(3, twoQ.size());
+        assertEquals(pid(3), twoQ.evict(ANY));
+        assertEquals(pid(1), twoQ.evict(ANY));
+        assertEquals(pid(4), twoQ.evict(ANY));
+        assertNull(twoQ.evict(ANY));
+    }
+
+    /**
+     * Unit test for restore(): a victim put back is the next victim again,
+     * and a page of A1in is not promoted by it
+     */
+    @Test public void restoreKeepsPlace() {
+        ReplacementPolicy lru = new LRUReplacementPolicy();
+        lru.admit(pid(0));
+        lru.admit(pid(1));
+        assertEquals(pid(0), lru.evict(ANY));
+        lru.restore(pid(0));
+        assertEquals(2, lru.size());
+        assertEquals(pid(0), lru.evict(ANY));
+
+        ReplacementPolicy twoQ = new TwoQueueReplacementPolicy(4, 1, 2);
+        twoQ.admit(pid(0));
+        twoQ.admit(pid(1));
+        assertEquals(pid(0), twoQ.evict(ANY));
+        twoQ.admit(pid(0)); // read again after eviction, so it goes to Am
+        twoQ.admit(pid(2));
+        assertEquals(pid(1), twoQ.evict(ANY));
+        twoQ.restore(pid(1)); // back at the head of A1in, not promoted to Am
+        assertEquals(pid(1), twoQ.evict(ANY));
+        assertEquals(pid(0), twoQ.evict(ANY));
+        twoQ.restore(pid(0)); // back at the LRU end of Am
+        assertEquals(pid(0), twoQ.evict(ANY));
+        assertEquals(pid(2), twoQ.evict(ANY));
+        assertNull(twoQ.evict(ANY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
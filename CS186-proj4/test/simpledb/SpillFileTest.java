@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public
+class SpillFileTest extends SimpleDbTestBase
+{
+    /**
+     * Tuples over several pages read back in the order added, more than
+     * once
+     */
+    @Test
+    public
+    void addAndIterate() throws Exception
+    {
+        TupleDesc td   = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        SpillFile file = new SpillFile(td);
+        int       n    = 1000; // about 8 pages of 132 byte tuples
+        for (int i = 0; i < n; i++)
+        {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("tuple " + i, Type.STRING_LEN));
+            file.add(t);
+        }
+        assertEquals(n, file.size());
+        assertTrue(file.bytes() > BufferPool.PAGE_SIZE);
+
+        DbIterator it = file.iterator();
+        it.open();
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                assertTrue(it.hasNext());
+                Tuple t = it.next();
+                assertEquals(new IntField(i), t.getField(0));
+                assertEquals(new StringField("tuple " + i, Type.STRING_LEN), t.getField(1));
+            }
+            assertFalse(it.hasNext());
+            it.rewind();
+        }
+        it.close();
+        file.delete();
+    }
+
+    /**
+     * An empty file has no tuples
+     */
+    @Test
+    public
+    void empty() throws Exception
+    {
+        SpillFile  file = new SpillFile(Utility.getTupleDesc(2));
+        DbIterator it   = file.iterator();
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        file.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(SpillFileTest.class);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public
+class TopNTest extends SimpleDbTestBase
+{
+    int   width1 = 2;
+    int[] data;
+
+    /**
+     * Initialize each unit test: 500 tuples with random keys in field 0,
+     * many of them equal, and their position in field 1
+     */
+    @Before
+    public
+    void createData()
+    {
+        Random r = new Random(186);
+        data = new int[500 * width1];
+        for (int i = 0; i < data.length / width1; i++)
+        {
+            data[i * width1] = r.nextInt(50);
+            data[i * width1 + 1] = i;
+        }
+    }
+
+    /**
+     * check that op returns the first limit tuples of OrderBy over data, in
+     * the same order
+     */
+    private
+    void checkTop(DbIterator op, boolean asc, int limit) throws Exception
+    {
+        OrderBy expected = new OrderBy(0, asc, TestUtil.createTupleList(width1, data));
+        expected.open();
+        for (int i = 0; i < limit && expected.hasNext(); i++)
+        {
+            assertTrue(op.hasNext());
+            assertTrue(TestUtil.compareTuples(expected.next(), op.next()));
+        }
+        assertFalse(op.hasNext());
+    }
+
+    /**
+     * Unit test for TopN with a limit far larger than its input: the heap
+     * grows with the input instead of being allocated for limit tuples
+     */
+    @Test
+    public
+    void hugeLimit() throws Exception
+    {
+        TopN op = new TopN(0, true, Integer.MAX_VALUE, TestUtil.createTupleList(width1, data));
+        op.open();
+        checkTop(op, true, Integer.MAX_VALUE);
+        op.close();
+    }
+
+    /**
+     * Unit test for TopN ascending and descending, ties in input order
+     */
+    @Test
+    public
+    void topN() throws Exception
+    {
+        for (boolean asc : new boolean[]{true, false})
+        {
+            for (int limit : new int[]{0, 1, 17, 500, 600})
+            {
+                TopN op = new TopN(0, asc, limit, TestUtil.createTupleList(width1, data));
+                op.open();
+                checkTop(op, asc, limit);
+                op.rewind();
+                checkTop(op, asc, limit);
+                op.close();
+            }
+        }
+    }
+
+    /**
+     * Unit test for Limit, which stops pulling from its child
+     */
+    @Test
+    public
+    void limit() throws Exception
+    {
+        final int[]   pulled = new int[1];
+        TupleIterator child  = new TupleIterator(Utility.getTupleDesc(width1), tupleList())
+        {
+            public
+            Tuple next()
+            {
+                pulled[0]++;
+                return super.next();
+            }
+        };
+
+        Limit op = new Limit(10, child);
+        op.open();
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(op.hasNext());
+            assertEquals(new IntField(i), op.next().getField(1));
+        }
+        assertFalse(op.hasNext());
+        assertEquals(10, pulled[0]);
+
+        op.rewind();
+        assertTrue(op.hasNext());
+        assertEquals(new IntField(0), op.next().getField(1));
+        op.close();
+    }
+
+    private
+    ArrayList<Tuple> tupleList() throws Exception
+    {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbIterator       it     = TestUtil.createTupleList(width1, data);
+        while (it.hasNext())
+        { tuples.add(it.next()); }
+        return tuples;
+    }
+
+    /**
+     * LIMIT is parsed and planned as TopN under ORDER BY and as Limit
+     * without
+     */
+    @Test
+    public
+    void plan() throws Exception
+    {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile                      f      = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "TL");
+        TableStats.setTableStats("TL", new TableStats(f.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        Parser        p   = new Parser();
+
+        DbIterator plan = p.generateLogicalPlan(tid, "SELECT t.c0, t.c1 FROM TL t ORDER BY t.c0 DESC LIMIT 7;")
+                           .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+        { keys.add(t.get(0)); }
+        Collections.sort(keys, Collections.reverseOrder());
+        plan.open();
+        for (int i = 0; i < 7; i++)
+        {
+            assertTrue(plan.hasNext());
+            assertEquals(new IntField(keys.get(i)), plan.next().getField(0));
+        }
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid, "SELECT t.c0 FROM TL t limit 3 ;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext())
+        {
+            plan.next();
+            n++;
+        }
+        assertEquals(3, n);
+        plan.close();
+
+        // limit tuples would not fit the sort's memory budget, so the sort spills
+        plan = p.generateLogicalPlan(tid, "SELECT t.c0 FROM TL t ORDER BY t.c0 LIMIT 2000000000;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        DbIterator limit = ((Operator) plan).getChildren()[0];
+        assertTrue(limit instanceof Limit);
+        assertTrue(((Operator) limit).getChildren()[0] instanceof OrderBy);
+        Collections.sort(keys);
+        plan.open();
+        for (Integer key : keys)
+        {
+            assertTrue(plan.hasNext());
+            assertEquals(new IntField(key), plan.next().getField(0));
+        }
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid, "SELECT t.c0 FROM TL t;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof Limit);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Reports the peak and live heap of aggregates over the dblp paperauths
+ * table:
+ * <ul>
+ * <li>COUNT(*), no grouping</li>
+ * <li>COUNT(paperid) GROUP BY authorid</li>
+ * <li>AVG(paperid) GROUP BY authorid</li>
+ * </ul>
+ * Each is run through Aggregate, which keeps one running state per group,
+ * and through "buffered", the previous aggregator that kept every tuple of
+ * a group and computed the aggregate when iterated. Peak heap is taken from
+ * the heap memory pools, less the heap in use before the run, and so
+ * includes garbage not yet collected. Live heap is the heap in use after a
+ * gc once the input has been read, less the heap in use before the run.
+ * <p>
+ * Usage: AggregateMemoryBenchmark [schema file]
+ */
+public
+class AggregateMemoryBenchmark
+{
+    public static
+    void main(String[] args) throws Exception
+    {
+        String      schema = args.length > 0 ? args[0] : "dblp_data/dblp_simpledb.schema";
+        PrintStream out    = System.out;
+
+        System.setOut(new PrintStream(new NullOutputStream())); // BufferPool is chatty
+        Database.getCatalog().loadSchema(schema);
+        int table = Database.getCatalog().getTableId("paperauths");
+
+        String[]        names  = {"count(*)", "count group", "avg group"};
+        int[]           gfield = {Aggregator.NO_GROUPING, 1, 1};
+        Aggregator.Op[] ops    = {Aggregator.Op.COUNT, Aggregator.Op.COUNT, Aggregator.Op.AVG};
+
+        out.format("%-12s %8s %12s %12s %12s %12s  (KB)\n",
+                   "query", "groups", "peak", "live", "buf peak", "buf live");
+        for (int round = 0; round < 2; round++) // the first round is warm-up
+        {
+            for (int q = 0; q < names.length; q++)
+            {
+                TransactionId tid = new TransactionId();
+
+                long[] mem = new long[4];
+
+                long       base = startPeak();
+                DbIterator agg  = new Aggregate(new SeqScan(tid, table, "pa"), 0, gfield[q], ops[q]);
+                agg.open();
+                mem[0] = peak() - base;
+                mem[1] = used() - base;
+                int groups = drain(agg);
+
+                base = startPeak();
+                int buffered = bufferedAggregate(new SeqScan(tid, table, "pa"), 0, gfield[q], ops[q], base, mem);
+
+                Database.getBufferPool().transactionComplete(tid);
+                if (groups != buffered)
+                { throw new RuntimeException(names[q] + ": group counts differ"); }
+                if (round == 1)
+                {
+                    out.format("%-12s %8d %12d %12d %12d %12d\n", names[q], groups,
+                               mem[0] / 1024, mem[1] / 1024, mem[2] / 1024, mem[3] / 1024);
+                }
+            }
+        }
+        System.setOut(out);
+    }
+
+    /**
+     * @return the number of tuples left in an open iterator, which is
+     * closed
+     */
+    private static
+    int drain(DbIterator it) throws Exception
+    {
+        int count = 0;
+        while (it.hasNext())
+        {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * the previous IntegerAggregator: every tuple is kept in its group's
+     * list and the aggregate computed from the lists. The peak and live
+     * heap once the input is read are put in mem[2] and mem[3].
+     *
+     * @return the number of groups
+     */
+    private static
+    int bufferedAggregate(DbIterator child, int afield, int gfield, Aggregator.Op op, long base, long[] mem)
+            throws Exception
+    {
+        Map<Field, ArrayList<Tuple>> groups = new HashMap<Field, ArrayList<Tuple>>();
+        child.open();
+        while (child.hasNext())
+        {
+            Tuple t   = child.next();
+            Field key = gfield == Aggregator.NO_GROUPING ? null : t.getField(gfield);
+            if (!groups.containsKey(key))
+            { groups.put(key, new ArrayList<Tuple>()); }
+            groups.get(key).add(t);
+        }
+        child.close();
+        mem[2] = peak() - base;
+        mem[3] = used() - base;
+
+        for (ArrayList<Tuple> tuples : groups.values())
+        {
+            if (op == Aggregator.Op.AVG)
+            {
+                int sum = 0;
+                for (Tuple t : tuples)
+                { sum += ((IntField) t.getField(afield)).getValue(); }
+                sink += sum / tuples.size();
+            }
+            else
+            { sink += tuples.size(); }
+        }
+        return groups.size();
+    }
+
+    private static int sink; // keeps the JIT from dropping results
+
+    /**
+     * gc, then reset the peak of the heap pools
+     *
+     * @return the heap in use
+     */
+    private static
+    long startPeak()
+    {
+        long used = used();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            { pool.resetPeakUsage(); }
+        }
+        return used;
+    }
+
+    /**
+     * gc
+     *
+     * @return the heap in use
+     */
+    private static
+    long used()
+    {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            { used += pool.getUsage().getUsed(); }
+        }
+        return used;
+    }
+
+    /**
+     * @return the peak heap since startPeak()
+     */
+    private static
+    long peak()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            { peak += pool.getPeakUsage().getUsed(); }
+        }
+        return peak;
+    }
+
+    private static
+    class NullOutputStream extends OutputStream
+    {
+        public
+        void write(int b)
+        {
+        }
+
+        public
+        void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb.systemtest;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Reports the BufferPool hit ratio of each replacement policy on a mixed
+ * scan + join workload over the dblp tables.
+ * <p>
+ * Each round scans the small venues table, scans the large paperauths table
+ * and joins venues.id = paperauths.paperid. A scan-resistant policy should
+ * keep venues resident while paperauths streams through the pool.
+ * <p>
+ * The dblp files are copied to a temp folder first, since committing the
+ * benchmark transaction writes back the pages it touched.
+ * <p>
+ * Usage: BufferPoolHitRatioBenchmark [schema file] [pool pages] [rounds]
+ */
+public
+class BufferPoolHitRatioBenchmark
+{
+    public static
+    void main(String[] args) throws Exception
+    {
+        String schema   = args.length > 0 ? args[0] : "dblp_data/dblp_simpledb.schema";
+        int    numPages = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int    rounds   = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        File        copy = copySchema(new File(schema));
+        PrintStream out  = System.out;
+
+        ReplacementPolicy[] policies = new ReplacementPolicy[]{
+                new LRUReplacementPolicy(),
+                new ClockReplacementPolicy(numPages),
+                new TwoQueueReplacementPolicy(numPages)
+        };
+
+        out.format("pool pages %d, rounds %d\n", numPages, rounds);
+        for (ReplacementPolicy policy : policies)
+        {
+            Database.reset();
+            System.setOut(new PrintStream(new NullOutputStream())); // BufferPool is chatty
+            Database.getCatalog().loadSchema(copy.getPath());
+            BufferPool bp = Database.resetBufferPool(numPages, policy);
+
+            long start = System.currentTimeMillis();
+            runWorkload(rounds);
+            long elapsed = System.currentTimeMillis() - start;
+
+            System.setOut(out);
+            long hits   = bp.getHitCount();
+            long misses = bp.getMissCount();
+            out.format(
+                    "%-28s hits %8d  misses %8d  hit ratio %.3f  time %d ms\n",
+                    policy.getClass().getSimpleName(), hits, misses,
+                    hits / (double) Math.max(1, hits + misses), elapsed
+                      );
+        }
+    }
+
+    private static
+    void runWorkload(int rounds) throws Exception
+    {
+        Catalog       catalog    = Database.getCatalog();
+        int           venues     = catalog.getTableId("venues");
+        int           paperauths = catalog.getTableId("paperauths");
+        TransactionId tid        = new TransactionId();
+
+        for (int r = 0; r < rounds; r++)
+        {
+            drain(new SeqScan(tid, venues, "v"));
+            drain(new SeqScan(tid, paperauths, "pa"));
+            JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+            drain(new Join(p, new SeqScan(tid, venues, "v"), new SeqScan(tid, paperauths, "pa")));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static
+    int drain(DbIterator it) throws Exception
+    {
+        int count = 0;
+        it.open();
+        while (it.hasNext())
+        {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * copy the schema file and the .dat files of its tables to a temp folder
+     */
+    private static
+    File copySchema(File schema) throws IOException
+    {
+        File dir = File.createTempFile("dblp", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        File[] files = schema.getAbsoluteFile().getParentFile().listFiles();
+        for (File f : files)
+        {
+            if (f.equals(schema.getAbsoluteFile()) || f.getName().endsWith(".dat"))
+            {
+                File dst = new File(dir, f.getName());
+                copyFile(f, dst);
+                dst.deleteOnExit();
+            }
+        }
+        return new File(dir, schema.getName());
+    }
+
+    private static
+    void copyFile(File src, File dst) throws IOException
+    {
+        InputStream  in  = new FileInputStream(src);
+        OutputStream out = new FileOutputStream(dst);
+        byte[]       buf = new byte[BufferPool.PAGE_SIZE];
+        int          n;
+        while ((n = in.read(buf)) > 0)
+        {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        out.close();
+    }
+
+    private static
+    class NullOutputStream extends OutputStream
+    {
+        public
+        void write(int b)
+        {
+        }
+
+        public
+        void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
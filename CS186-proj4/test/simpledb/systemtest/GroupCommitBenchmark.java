@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures commits per second of small insert transactions as the number
+ * of concurrent committers grows, and how many commits share one force of
+ * the log.
+ * <p>
+ * Each thread inserts one row per transaction into its own table, so
+ * threads never wait for each other's locks. The pool runs STEAL/NO-FORCE,
+ * so a commit costs a force of the log and nothing else on disk; with group
+ * commit, concurrent committers share that force. The log bytes written per
+ * commit are reported too.
+ * <p>
+ * Usage: GroupCommitBenchmark [max threads] [ms per run] [group wait us] [group batch]
+ */
+public
+class GroupCommitBenchmark
+{
+    public static
+    void main(String[] args) throws Exception
+    {
+        int  maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int  millis     = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long waitMicros = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int  batch      = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new NullOutputStream())); // inserts are chatty
+        HeapFile[] tables = new HeapFile[maxThreads];
+        for (int i = 0; i < maxThreads; i++)
+        { tables[i] = SystemTestUtil.createRandomHeapFile(2, 504, null, null); }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 20).setStealNoForce(true);
+        Database.getLogFile().setGroupCommit(waitMicros, batch);
+        run(tables, maxThreads, millis); // let the JIT compile the commit path first
+        System.setOut(out);
+
+        File log = new File("log");
+        out.format("%8s %12s %12s %14s %14s\n", "threads", "commits/s", "forces/s", "commits/force", "log B/commit");
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            System.setOut(new PrintStream(new NullOutputStream()));
+            long forces  = Database.getLogFile().getForceCount();
+            long bytes   = log.length();
+            long commits = run(tables, threads, millis);
+            forces = Database.getLogFile().getForceCount() - forces;
+            bytes = log.length() - bytes;
+            System.setOut(out);
+            out.format("%8d %12d %12d %14.1f %14d\n",
+                       threads, commits * 1000 / millis, forces * 1000 / millis, (double) commits / Math.max(1, forces),
+                       bytes / Math.max(1, commits));
+        }
+    }
+
+    /**
+     * @return num of committed transactions
+     */
+    private static
+    long run(final HeapFile[] tables, int threads, int millis) throws Exception
+    {
+        final AtomicBoolean stop      = new AtomicBoolean(false);
+        final AtomicLong    committed = new AtomicLong();
+        final CyclicBarrier start     = new CyclicBarrier(threads + 1);
+        Thread[]            workers   = new Thread[threads];
+
+        for (int i = 0; i < threads; i++)
+        {
+            final HeapFile table = tables[i];
+            workers[i] = new Thread()
+            {
+                public
+                void run()
+                {
+                    Tuple row = new Tuple(Utility.getTupleDesc(2));
+                    row.setField(0, new IntField(1));
+                    row.setField(1, new IntField(2));
+                    try
+                    {
+                        start.await();
+                        while (!stop.get())
+                        {
+                            Transaction t = new Transaction();
+                            t.start();
+                            Insert insert = new Insert(t.getId(), new TupleIterator(row.getTupleDesc(),
+                                                                                    Arrays.asList(row)), table.getId());
+                            insert.open();
+                            insert.next();
+                            insert.close();
+                            t.commit();
+                            committed.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        start.await();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers)
+        { worker.join(); }
+        return committed.get();
+    }
+
+    private static
+    class NullOutputStream extends OutputStream
+    {
+        public
+        void write(int b)
+        {
+        }
+
+        public
+        void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.systemtest;
+
+import java.util.concurrent.CyclicBarrier;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public
+class GroupCommitTest extends SimpleDbTestBase
+{
+    private static final int THREADS = 4;
+
+    /**
+     * Committers that show up within the wait window share one force of
+     * the log; the leader forces as soon as the batch is full.
+     */
+    @Test(timeout = 5000)
+    public
+    void testCommitsShareForce() throws Exception
+    {
+        final LogFile       log     = Database.getLogFile();
+        final CyclicBarrier start   = new CyclicBarrier(THREADS);
+        final Exception[]   errors  = new Exception[THREADS];
+        Thread[]            workers = new Thread[THREADS];
+        log.setGroupCommit(60 * 1000 * 1000, THREADS);
+
+        // the first append truncates the log, keep it out of the count
+        new Transaction().start();
+        long forces = log.getForceCount();
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            final int n = i;
+            workers[i] = new Thread()
+            {
+                public
+                void run()
+                {
+                    try
+                    {
+                        Transaction t = new Transaction();
+                        t.start();
+                        start.await();
+                        t.commit();
+                    }
+                    catch (Exception e)
+                    {
+                        errors[n] = e;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+        { worker.join(); }
+
+        for (Exception e : errors)
+        { assertNull(e); }
+        assertEquals(forces + 1, log.getForceCount());
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
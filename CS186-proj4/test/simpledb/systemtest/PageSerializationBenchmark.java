@@ -0,0 +1,209 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Compares the ways a HeapPage can be turned into bytes for a write, for
+ * several tuple widths:
+ * <ul>
+ * <li>stream: the old getPageData(), every byte through a DataOutputStream</li>
+ * <li>bulk: getPageBuffer() after a change, serialized with bulk puts into
+ * a new buffer</li>
+ * <li>cached: getPageBuffer() of an unchanged page</li>
+ * <li>copy: getPageData() of an unchanged page, one array copy</li>
+ * </ul>
+ * The stream and bulk paths both delete and re-insert one tuple per
+ * operation so that bulk has to serialize again; the cost of that change
+ * alone is reported as "change".
+ * <p>
+ * Usage: PageSerializationBenchmark [iterations]
+ */
+public
+class PageSerializationBenchmark
+{
+    private static final Type[][] SCHEMAS = new Type[][]{
+            {Type.INT_TYPE},
+            {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+            Utility.getTypes(16),
+            {Type.INT_TYPE, Type.STRING_TYPE},
+            {Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE}
+    };
+
+    private static int sink; // keeps the JIT from dropping results
+
+    public static
+    void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        System.out.format("%-10s %7s %6s %10s %10s %10s %10s %10s  (ns/op)\n",
+                          "schema", "width", "tuples", "change", "stream", "bulk", "cached", "copy");
+        for (Type[] types : SCHEMAS)
+        {
+            HeapPage page = fillPage(types);
+            Tuple    t    = page.iterator().next();
+            String   name = types.length + (types[types.length - 1] == Type.STRING_TYPE ? "str" : "int");
+
+            if (!Arrays.equals(streamPageData(page), page.getPageData()))
+            { throw new RuntimeException("bulk and stream page images differ for " + name); }
+
+            long[] ns = new long[5];
+            for (int round = 0; round < 2; round++) // the first round is warm-up
+            {
+                ns[0] = change(page, t, iterations);
+                ns[1] = stream(page, t, iterations);
+                ns[2] = bulk(page, t, iterations);
+                ns[3] = cached(page, iterations);
+                ns[4] = copy(page, iterations);
+            }
+            System.out.format("%-10s %7d %6d %10d %10d %10d %10d %10d\n",
+                              name, new TupleDesc(types).getSize(),
+                              countTuples(page), ns[0], ns[1], ns[2], ns[3], ns[4]);
+        }
+    }
+
+    /**
+     * a page of a new table with the given schema, three quarters full
+     */
+    private static
+    HeapPage fillPage(Type[] types) throws Exception
+    {
+        TupleDesc td   = new TupleDesc(types);
+        File      temp = File.createTempFile("serialize", ".dat");
+        temp.deleteOnExit();
+        HeapFile hf = new HeapFile(temp, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        HeapPage page  = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        int      total = page.getNumEmptySlots() * 3 / 4;
+        for (int i = 0; i < total; i++)
+        {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < types.length; j++)
+            {
+                if (types[j] == Type.INT_TYPE)
+                { t.setField(j, new IntField(i * 31 + j)); }
+                else
+                { t.setField(j, new StringField("tuple " + i + " field " + j, Type.STRING_LEN)); }
+            }
+            page.insertTuple(t);
+        }
+        return page;
+    }
+
+    private static
+    void touch(HeapPage page, Tuple t) throws DbException
+    {
+        page.deleteTuple(t);
+        page.insertTuple(t);
+    }
+
+    private static
+    long change(HeapPage page, Tuple t, int n) throws DbException
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        { touch(page, t); }
+        return (System.nanoTime() - start) / n;
+    }
+
+    private static
+    long stream(HeapPage page, Tuple t, int n) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        {
+            touch(page, t);
+            sink += streamPageData(page).length;
+        }
+        return (System.nanoTime() - start) / n;
+    }
+
+    private static
+    long bulk(HeapPage page, Tuple t, int n) throws DbException
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        {
+            touch(page, t);
+            sink += page.getPageBuffer().get(i % BufferPool.PAGE_SIZE);
+        }
+        return (System.nanoTime() - start) / n;
+    }
+
+    private static
+    long cached(HeapPage page, int n)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        { sink += page.getPageBuffer().get(i % BufferPool.PAGE_SIZE); }
+        return (System.nanoTime() - start) / n;
+    }
+
+    private static
+    long copy(HeapPage page, int n)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        { sink += page.getPageData().length; }
+        return (System.nanoTime() - start) / n;
+    }
+
+    /**
+     * the previous HeapPage.getPageData(), a byte at a time through a
+     * DataOutputStream
+     */
+    private static
+    byte[] streamPageData(HeapPage page) throws IOException
+    {
+        TupleDesc             td       = page.iterator().next().getTupleDesc();
+        int                   numSlots = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        int                   hdrLen   = (numSlots + 7) / 8;
+        ByteArrayOutputStream baos     = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream      dos      = new DataOutputStream(baos);
+
+        for (int i = 0; i < hdrLen; i++)
+        {
+            int b = 0;
+            for (int k = 0; k < 8 && i * 8 + k < numSlots; k++)
+            {
+                if (page.isSlotUsed(i * 8 + k))
+                { b |= 1 << k; }
+            }
+            dos.writeByte(b);
+        }
+        for (int i = 0; i < numSlots; i++)
+        {
+            if (!page.isSlotUsed(i))
+            {
+                for (int j = 0; j < td.getSize(); j++)
+                { dos.writeByte(0); }
+                continue;
+            }
+            Tuple t = page.getTuple(i);
+            for (int j = 0; j < td.numFields(); j++)
+            { t.getField(j).serialize(dos); }
+        }
+        int zerolen = BufferPool.PAGE_SIZE - (hdrLen + td.getSize() * numSlots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static
+    int countTuples(HeapPage page)
+    {
+        int             count = 0;
+        Iterator<Tuple> it    = page.iterator();
+        while (it.hasNext())
+        {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+}
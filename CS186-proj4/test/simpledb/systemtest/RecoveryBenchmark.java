@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures restart time, i.e. LogFile.recover(), against the size of the
+ * log left by a crash.
+ * <p>
+ * Each run commits a number of transactions under STEAL/NO-FORCE, each
+ * updating a few random pages of a table, then drops the buffer pool
+ * without writing it and recovers. Every update is only in the log, so
+ * redo has to install them all. The same run is repeated with the pool
+ * written out, as the page writer would, and a checkpoint taken before the
+ * last tenth of the transactions: the checkpoint truncates the log, and redo
+ * starts at the oldest recLSN after it.
+ * <p>
+ * Usage: RecoveryBenchmark [max transactions] [pages per transaction]
+ */
+public
+class RecoveryBenchmark
+{
+    private static final int TABLE_PAGES = 256;
+
+    public static
+    void main(String[] args) throws Exception
+    {
+        int maxTransactions = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int pagesPerTxn     = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        run(16, pagesPerTxn, false); // warm-up
+        System.out.format("%8s %12s %12s %12s %12s\n", "txns", "log KB", "restart ms", "cp log KB", "cp restart ms");
+        for (int n = 32; n <= maxTransactions; n *= 2)
+        {
+            long[] full = run(n, pagesPerTxn, false);
+            long[] cp   = run(n, pagesPerTxn, true);
+            System.out.format("%8d %12d %12.1f %12d %12.1f\n",
+                              n, full[0] / 1024, full[1] / 1e6, cp[0] / 1024, cp[1] / 1e6);
+        }
+    }
+
+    /**
+     * @return {log size in bytes, ns taken by recover()}
+     */
+    private static
+    long[] run(int transactions, int pagesPerTxn, boolean checkpoint) throws Exception
+    {
+        Database.reset();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        crash();
+
+        Random rand = new Random(transactions);
+        for (int i = 0; i < transactions; i++)
+        {
+            if (checkpoint && i == transactions - transactions / 10)
+            {
+                Database.getBufferPool().flushAllPages();
+                Database.getLogFile().logCheckpoint();
+            }
+
+            Transaction t = new Transaction();
+            t.start();
+            for (int p = 0; p < pagesPerTxn; p++)
+            {
+                HeapPageId pid  = new HeapPageId(table.getId(), rand.nextInt(TABLE_PAGES));
+                Page       page = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_WRITE);
+                page.markDirty(true, t.getId());
+            }
+            t.commit();
+        }
+
+        crash();
+        long logBytes = new File("log").length();
+        long start    = System.nanoTime();
+        Database.getLogFile().recover();
+        return new long[]{logBytes, System.nanoTime() - start};
+    }
+
+    /**
+     * lose the buffer pool, with the pages it did not write
+     */
+    private static
+    void crash()
+    {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES + 16);
+        bp.setStealNoForce(true);
+        bp.getPageWriter().setPagesPerSecond(0);
+    }
+}
@@ -0,0 +1,362 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public
+class RecoveryTest extends SimpleDbTestBase
+{
+    private HeapFile f;
+
+    @Before
+    public
+    void setUp() throws Exception
+    {
+        super.setUp();
+        // Allocate a file with ~10 pages of data
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        crash();
+    }
+
+    /**
+     * lose the buffer pool, with the pages it did not write
+     */
+    private static
+    void crash()
+    {
+        crash(true);
+    }
+
+    /**
+     * lose the buffer pool, and start again in STEAL/NO-FORCE mode or in
+     * the default FORCE/NO-STEAL mode
+     */
+    private static
+    void crash(boolean stealNoForce)
+    {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setStealNoForce(stealNoForce);
+        bp.getPageWriter().setPagesPerSecond(0);
+    }
+
+    private
+    boolean findMagicTuple() throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        boolean found = EvictionTest.findMagicTuple(f, t);
+        t.commit();
+        return found;
+    }
+
+    /**
+     * A commit that only reached the log is redone.
+     */
+    @Test
+    public
+    void testRedoCommitted()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * A running transaction whose page was written to disk is undone, and
+     * is not undone again by a second recovery.
+     */
+    @Test
+    public
+    void testUndoUncommitted()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        Database.getLogFile().recover();
+        assertFalse(findMagicTuple());
+
+        t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * In FORCE/NO-STEAL mode, a transaction whose pages were forced but
+     * which crashed before its COMMIT record is undone.
+     */
+    @Test
+    public
+    void testUndoForcedBeforeCommit()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        crash(false);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        Database.getBufferPool().flushPages(t.getId());
+
+        crash(false);
+        Database.getLogFile().recover();
+        assertFalse(findMagicTuple());
+    }
+
+    /**
+     * Updates of a transaction that aborted before the crash are not
+     * redone over the commits that came before or after it.
+     */
+    @Test
+    public
+    void testAbortedNotRedone()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        // delete every row, then change our mind
+        t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().flushAllPages();
+        t.transactionComplete(true);
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * Updates before a checkpoint are redone from the dirty page table it
+     * recorded, and updates after it are.
+     */
+    @Test
+    public
+    void testRecoverAfterCheckpoint()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+        Database.getLogFile().logCheckpoint();
+
+        // running across the crash, so undone
+        Transaction running = new Transaction();
+        running.start();
+        Delete delete = new Delete(running.getId(), new SeqScan(running.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * A checkpoint writes no page: a commit before it is still only in the
+     * log, and the dirty page table of the checkpoint keeps the update from
+     * being truncated away and makes redo start before the checkpoint.
+     */
+    @Test
+    public
+    void testFuzzyCheckpoint()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        long written = Database.getBufferPool().getPageWriter().getPagesWritten();
+        Database.getLogFile().logCheckpoint();
+        assertEquals(written, Database.getBufferPool().getPageWriter().getPagesWritten());
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * Once the page writer wrote the page, the next checkpoint leaves it out
+     * of the dirty page table, and what the page needs is still on disk.
+     */
+    @Test
+    public
+    void testCheckpointAfterPageWritten()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        crash();
+        Database.getLogFile().recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * The log is truncated after a checkpoint: a committed transaction does
+     * not come back as active, and one still running can still be rolled
+     * back from the records that were kept.
+     */
+    @Test
+    public
+    void testTruncateAfterCheckpoint()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        // running began first, so the log is kept from before t began
+        LogFile     log     = Database.getLogFile();
+        Transaction running = new Transaction();
+        running.start();
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        Delete delete = new Delete(running.getId(), new SeqScan(running.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().flushAllPages();
+
+        log.logCheckpoint();
+        log.logCheckpoint();
+        assertFalse(log.isActive(t.getId()));
+        assertTrue(log.isActive(running.getId()));
+
+        running.transactionComplete(true);
+        assertTrue(findMagicTuple());
+
+        crash();
+        log.recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * The background thread takes a checkpoint once something was logged
+     * and the interval has passed.
+     */
+    @Test(timeout = 10000)
+    public
+    void testBackgroundCheckpoint()
+    throws Exception
+    {
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        long checkpoints = log.getCheckpointCount();
+        log.setCheckpointInterval(10);
+        try
+        {
+            while (log.getCheckpointCount() == checkpoints)
+            { Thread.sleep(10); }
+        }
+        finally
+        {
+            log.setCheckpointInterval(0);
+        }
+
+        crash();
+        log.recover();
+        assertTrue(findMagicTuple());
+    }
+
+    /**
+     * With full page images, the first update of a page after the
+     * checkpoint is logged in full and the later ones as deltas; recovery
+     * applies both kinds.
+     */
+    @Test
+    public
+    void testFullPageImages()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        Database.getLogFile().setFullPageImages(true);
+        try
+        {
+            Transaction t = new Transaction();
+            t.start();
+            EvictionTest.insertRow(f, t);
+            t.commit();
+
+            // delete every row, then put the magic one back
+            t = new Transaction();
+            t.start();
+            deleteAll(t);
+            t.commit();
+            t = new Transaction();
+            t.start();
+            EvictionTest.insertRow(f, t);
+            t.commit();
+
+            // running across the crash, so undone
+            Transaction running = new Transaction();
+            running.start();
+            deleteAll(running);
+            Database.getBufferPool().flushAllPages();
+
+            crash();
+            Database.getLogFile().recover();
+            ArrayList<ArrayList<Integer>> magic = new ArrayList<ArrayList<Integer>>();
+            magic.add(new ArrayList<Integer>(Arrays.asList(-42, -43)));
+            SystemTestUtil.matchTuples(f, magic);
+        }
+        finally
+        {
+            Database.getLogFile().setFullPageImages(false);
+        }
+    }
+
+    private
+    void deleteAll(Transaction t) throws DbException, TransactionAbortedException
+    {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public
+class StealNoForceTest extends SimpleDbTestBase
+{
+    /**
+     * A transaction may dirty more pages than fit in the pool: its dirty
+     * page is logged and evicted, and abort restores it from the log.
+     */
+    @Test
+    public
+    void testEvictUncommittedPages()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        // Allocate a file with ~10 pages of data
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        Database.resetBufferPool(1).setStealNoForce(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+
+        // the scan steals the dirty page, and reads it back with the row
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * Commit writes the pages to the log only; they reach the table file
+     * later, and are visible to the next transaction in the meantime.
+     */
+    @Test
+    public
+    void testCommitDoesNotForcePages()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        HeapFile   f  = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setStealNoForce(true);
+        bp.getPageWriter().setPagesPerSecond(0);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+        assertEquals(0, bp.getPageWriter().getPagesWritten());
+
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+
+        // once written out, the row survives a new pool
+        bp.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * An abort must not roll a page back to its on-disk version, which
+     * misses the changes of transactions that committed without forcing it.
+     */
+    @Test
+    public
+    void testAbortKeepsUnforcedCommits()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setStealNoForce(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        // delete every row, then change our mind
+        t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * A dirty page whose write fails while it is stolen stays in the pool,
+     * so the update is still there once the disk works again.
+     */
+    @Test
+    public
+    void testFailedStealKeepsPage()
+    throws IOException, DbException, TransactionAbortedException
+    {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        final boolean[] failWrites = new boolean[1];
+        HeapFile failing = new HeapFile(f.getFile(), f.getTupleDesc())
+        {
+            public
+            void writePage(Page page) throws IOException
+            {
+                if (failWrites[0])
+                { throw new IOException("disk full"); }
+                super.writePage(page);
+            }
+        };
+        // the catalog hands out the first table with an id
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(failing, "failing");
+        Database.resetBufferPool(1).setStealNoForce(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(failing, t);
+
+        failWrites[0] = true;
+        try
+        {
+            EvictionTest.findMagicTuple(failing, t);
+            fail("expected the eviction to fail");
+        }
+        catch (DbException e)
+        {
+            // expected
+        }
+
+        failWrites[0] = false;
+        assertTrue(EvictionTest.findMagicTuple(failing, t));
+        t.commit();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(failing, t));
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static
+    junit.framework.Test suite()
+    {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
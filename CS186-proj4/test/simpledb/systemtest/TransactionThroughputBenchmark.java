@@ -0,0 +1,147 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures how many transactions per second the lock manager lets through
+ * as the number of concurrent threads grows, like TransactionTest but for
+ * throughput rather than correctness.
+ * <p>
+ * Each transaction read-locks a few random pages of the first half of a
+ * table and write-locks one page of its thread's own slice of the second
+ * half, then commits. Transactions of different threads share read locks
+ * but never conflict, so throughput should grow with the thread count up to
+ * the number of cores. All pages stay resident and are never dirtied, so no
+ * I/O is done.
+ * <p>
+ * Usage: TransactionThroughputBenchmark [max threads] [ms per run] [pages],
+ * pages must be at least 2 * max threads
+ */
+public
+class TransactionThroughputBenchmark
+{
+    private static final int READS_PER_TRANSACTION = 4;
+
+    public static
+    void main(String[] args) throws Exception
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int millis     = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int numPages   = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new NullOutputStream())); // inserts and aborts are chatty
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, numPages * 504, null, null);
+        Database.resetBufferPool(numPages + 16);
+        warmUp(table, numPages);
+        run(table, numPages, maxThreads, millis); // let the JIT compile the lock paths first
+        System.setOut(out);
+
+        out.format("%8s %14s %10s\n", "threads", "txn/s", "aborts");
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            System.setOut(new PrintStream(new NullOutputStream()));
+            long[] result = run(table, numPages, threads, millis);
+            System.setOut(out);
+            out.format("%8d %14d %10d\n", threads, result[0] * 1000 / millis, result[1]);
+        }
+    }
+
+    /**
+     * read every page once so runs find them all in the pool
+     */
+    private static
+    void warmUp(HeapFile table, int numPages) throws Exception
+    {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++)
+        { Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY); }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return {committed transactions, aborted transactions}
+     */
+    private static
+    long[] run(final HeapFile table, final int numPages, final int threads, int millis) throws Exception
+    {
+        final AtomicBoolean stop      = new AtomicBoolean(false);
+        final AtomicLong    committed = new AtomicLong();
+        final AtomicLong    aborted   = new AtomicLong();
+        final CyclicBarrier start     = new CyclicBarrier(threads + 1);
+        Thread[]            workers   = new Thread[threads];
+
+        for (int i = 0; i < threads; i++)
+        {
+            final int threadid = i;
+            workers[i] = new Thread()
+            {
+                public
+                void run()
+                {
+                    Random     rand   = new Random(threadid);
+                    BufferPool bp     = Database.getBufferPool();
+                    int        shared = numPages / 2;                 // pages [0, shared) are only read
+                    int        slice  = (numPages - shared) / threads; // each thread writes its own slice of the rest
+                    try
+                    {
+                        start.await();
+                        while (!stop.get())
+                        {
+                            TransactionId tid = new TransactionId();
+                            try
+                            {
+                                for (int r = 0; r < READS_PER_TRANSACTION; r++)
+                                {
+                                    int pageNo = rand.nextInt(shared);
+                                    bp.getPage(tid, new HeapPageId(table.getId(), pageNo), Permissions.READ_ONLY);
+                                }
+                                int own = shared + threadid * slice + rand.nextInt(slice);
+                                bp.getPage(tid, new HeapPageId(table.getId(), own), Permissions.READ_WRITE);
+                                bp.transactionComplete(tid, true);
+                                committed.incrementAndGet();
+                            }
+                            catch (TransactionAbortedException e)
+                            {
+                                bp.transactionComplete(tid, false);
+                                aborted.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        start.await();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers)
+        { worker.join(); }
+        return new long[]{committed.get(), aborted.get()};
+    }
+
+    private static
+    class NullOutputStream extends OutputStream
+    {
+        public
+        void write(int b)
+        {
+        }
+
+        public
+        void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}